@@ -0,0 +1,127 @@
+package cz.cuni.mff.d3s.blood.analyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Command line tool summing dumps of many runs - depmat, nodemat and
+ * compilation timing - into one set of tables.
+ * <p>
+ * Compilations are processed in parallel by a fork-join pool. Every
+ * compilation is read, added to the aggregate and dropped, so memory use does
+ * not grow with the size of the runs.
+ */
+public final class Analyzer {
+
+    private static final String USAGE = "Usage: analyzer [-f csv|binary] [-j threads] -o output-dir dump-dir...\n"
+            + "\n"
+            + "A dump directory is either a directory of one run, or a directory containing runs (such as 'dumps').";
+
+    private Analyzer() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String format = "csv";
+        int threads = Runtime.getRuntime().availableProcessors();
+        File output = null;
+        List<File> inputs = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-f":
+                    format = argument(args, ++i);
+                    break;
+                case "-j":
+                    threads = Integer.parseInt(argument(args, ++i));
+                    break;
+                case "-o":
+                    output = new File(argument(args, ++i));
+                    break;
+                default:
+                    inputs.add(new File(args[i]));
+            }
+        }
+        if (output == null || inputs.isEmpty() || !(format.equals("csv") || format.equals("binary"))) {
+            usage();
+        }
+
+        List<File> runDirs = new ArrayList<>();
+        for (File input : inputs) {
+            findRuns(input, runDirs);
+        }
+
+        long start = System.nanoTime();
+        DumpAggregate aggregate = new DumpAggregate();
+        AtomicLong failures = new AtomicLong();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<RunSource> runs = new ArrayList<>();
+        List<CompilationTask> tasks = new ArrayList<>();
+        try {
+            for (File runDir : runDirs) {
+                RunSource run = RunSource.open(runDir);
+                runs.add(run);
+                CompilationTask task = new CompilationTask(run, aggregate, failures);
+                tasks.add(task);
+                pool.execute(task);
+            }
+            for (CompilationTask task : tasks) {
+                task.join();
+            }
+        } finally {
+            pool.shutdown();
+            for (RunSource run : runs) {
+                run.close();
+            }
+        }
+
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Cannot create " + output);
+        }
+        if (format.equals("csv")) {
+            aggregate.writeCsv(output);
+        } else {
+            aggregate.writeBinary(output);
+        }
+
+        System.err.printf("%d compilations in %d runs, %d failed, %.1f s%n",
+                aggregate.getCompilationCount(), runDirs.size(), failures.get(), (System.nanoTime() - start) / 1e9);
+        if (failures.get() > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void findRuns(File input, List<File> runDirs) throws IOException {
+        if (!input.isDirectory()) {
+            throw new IOException("Not a directory: " + input);
+        }
+        if (RunSource.isRun(input)) {
+            runDirs.add(input);
+            return;
+        }
+
+        File[] children = input.listFiles(File::isDirectory);
+        Arrays.sort(children);
+        for (File child : children) {
+            if (RunSource.isRun(child)) {
+                runDirs.add(child);
+            }
+        }
+    }
+
+    private static String argument(String[] args, int index) {
+        if (index >= args.length) {
+            usage();
+        }
+        return args[index];
+    }
+
+    private static void usage() {
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+}
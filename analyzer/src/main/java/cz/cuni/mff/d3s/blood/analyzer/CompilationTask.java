@@ -0,0 +1,61 @@
+package cz.cuni.mff.d3s.blood.analyzer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adds a range of compilations of one run to the aggregate, splitting it
+ * among the threads of the fork-join pool.
+ */
+final class CompilationTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Compilations handled by one task without splitting further. Each takes
+     * a few file reads, so small ranges are fine.
+     */
+    private static final int THRESHOLD = 32;
+
+    private final RunSource run;
+    private final List<String> ids;
+    private final int from;
+    private final int to;
+    private final DumpAggregate aggregate;
+    private final AtomicLong failures;
+
+    CompilationTask(RunSource run, DumpAggregate aggregate, AtomicLong failures) {
+        this(run, run.getIds(), 0, run.getIds().size(), aggregate, failures);
+    }
+
+    private CompilationTask(RunSource run, List<String> ids, int from, int to, DumpAggregate aggregate, AtomicLong failures) {
+        this.run = run;
+        this.ids = ids;
+        this.from = from;
+        this.to = to;
+        this.aggregate = aggregate;
+        this.failures = failures;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from > THRESHOLD) {
+            int middle = (from + to) >>> 1;
+            invokeAll(new CompilationTask(run, ids, from, middle, aggregate, failures),
+                    new CompilationTask(run, ids, middle, to, aggregate, failures));
+            return;
+        }
+
+        for (int i = from; i < to; i++) {
+            String id = ids.get(i);
+            try {
+                aggregate.add(run, id);
+            } catch (IOException | RuntimeException ex) {
+                failures.incrementAndGet();
+                System.err.println(run.getRunDir() + ": " + id + ": " + ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package cz.cuni.mff.d3s.blood.analyzer;
+
+import cz.cuni.mff.d3s.blood.report.format.BinaryDumpReader;
+import cz.cuni.mff.d3s.blood.report.format.BinaryDumpWriter;
+import cz.cuni.mff.d3s.blood.report.format.StringTable;
+import cz.cuni.mff.d3s.blood.utils.matrix.ConcurrentCounterMatrix;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Depmat, nodemat and timing of many compilations summed together. Phases are
+ * identified by their class path (the text of a {@code .phasestack} line), as
+ * in the run aggregate written by blood itself. Can be updated from many
+ * threads at once.
+ */
+final class DumpAggregate {
+
+    private final ConcurrentCounterMatrix<String, String> depMat = new ConcurrentCounterMatrix<>();
+    private final ConcurrentCounterMatrix<String, String> nodeMatEntry = new ConcurrentCounterMatrix<>();
+    private final ConcurrentCounterMatrix<String, String> nodeMatExit = new ConcurrentCounterMatrix<>();
+    private final TimingTable timing = new TimingTable();
+    private final LongAdder compilations = new LongAdder();
+
+    long getCompilationCount() {
+        return compilations.sum();
+    }
+
+    /**
+     * Adds one compilation. Its entries are read one at a time, binary ones
+     * are preferred when both encodings exist. Missing entries are skipped.
+     *
+     * @param run the run of the compilation
+     * @param id  identifier of the compilation
+     * @throws IOException when an entry cannot be read or decoded
+     */
+    void add(RunSource run, String id) throws IOException {
+        compilations.increment();
+
+        byte[] request = run.read(id, "request");
+        byte[] timingData = run.read(id, "timing");
+        if (request != null && timingData != null) {
+            String[] timingLines = text(timingData).split("\n");
+            timing.add(methodOf(text(request)), Long.parseLong(timingLines[1].strip()));
+        }
+
+        String[] phases = readPhaseStack(run, id);
+        if (phases == null) {
+            return;
+        }
+        addDepMat(run, id, phases);
+        addNodeMat(run, id, phases);
+    }
+
+    /**
+     * @return for every phase stack state its class path, or null when the
+     * compilation has no phase stack
+     */
+    private static String[] readPhaseStack(RunSource run, String id) throws IOException {
+        byte[] binary = run.read(id, "phasestack.bin");
+        if (binary != null) {
+            BinaryDumpReader in = reader(run, binary);
+            String[] frames = in.readTreePaths();
+            int[] stateFrames = in.readIntList();
+            String[] phases = new String[stateFrames.length];
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = stateFrames[i] < 0 ? "" : frames[stateFrames[i]];
+            }
+            return phases;
+        }
+
+        byte[] data = run.read(id, "phasestack");
+        return data == null ? null : text(data).split("\n", -1);
+    }
+
+    private void addDepMat(RunSource run, String id, String[] phases) throws IOException {
+        byte[] binary = run.read(id, "depmat.bin");
+        if (binary != null) {
+            BinaryDumpReader in = reader(run, binary);
+            String[] states = paths(in.readIntList(), phases);
+            addMatrix(depMat, states, states, in.readMatrix());
+            return;
+        }
+
+        byte[] data = run.read(id, "depmat");
+        if (data != null) {
+            String[] sections = text(data).split("\n\n", -1);
+            String[] states = paths(lines(sections[0]), phases);
+            addMatrix(depMat, states, states, sections[1]);
+        }
+    }
+
+    private void addNodeMat(RunSource run, String id, String[] phases) throws IOException {
+        byte[] binary = run.read(id, "nodemat.bin");
+        if (binary != null) {
+            BinaryDumpReader in = reader(run, binary);
+            String[] classes = in.readStringList().toArray(new String[0]);
+            String[] states = paths(in.readIntList(), phases);
+            addMatrix(nodeMatEntry, states, classes, in.readMatrix());
+            addMatrix(nodeMatExit, states, classes, in.readMatrix());
+            return;
+        }
+
+        byte[] data = run.read(id, "nodemat");
+        if (data != null) {
+            String[] sections = text(data).split("\n\n", -1);
+            String[] classes = lines(sections[0]);
+            if (classes.length == 0) {
+                // no nodes, the matrices have no cells
+                return;
+            }
+            String[] states = paths(lines(sections[1]), phases);
+            addMatrix(nodeMatEntry, states, classes, sections[2]);
+            addMatrix(nodeMatExit, states, classes, sections[3]);
+        }
+    }
+
+    private static void addMatrix(ConcurrentCounterMatrix<String, String> target, String[] rows, String[] cols, BinaryDumpReader.CounterMatrix matrix) {
+        for (int row = 0; row < matrix.getRowCount(); row++) {
+            for (int col = 0; col < matrix.getColCount(); col++) {
+                addCell(target, rows[row], cols[col], matrix.getCount(row, col), matrix.getTotal(row, col), matrix.getIterations(row, col));
+            }
+        }
+    }
+
+    /**
+     * Adds a matrix in the {@code X:Y:Z} text format.
+     */
+    private static void addMatrix(ConcurrentCounterMatrix<String, String> target, String[] rows, String[] cols, String matrix) {
+        String[] lines = lines(matrix);
+        for (int row = 0; row < lines.length; row++) {
+            String[] cells = lines[row].split(" ");
+            for (int col = 0; col < cells.length; col++) {
+                String cell = cells[col];
+                int first = cell.indexOf(':');
+                int second = cell.indexOf(':', first + 1);
+                addCell(target, rows[row], cols[col],
+                        Long.parseLong(cell, 0, first, 10),
+                        Long.parseLong(cell, first + 1, second, 10),
+                        Long.parseLong(cell, second + 1, cell.length(), 10));
+            }
+        }
+    }
+
+    private static void addCell(ConcurrentCounterMatrix<String, String> target, String row, String col, long count, long total, long iterations) {
+        // cells that were not measured are written as zeros, phases unknown to the phase stack are null
+        if (row != null && col != null && (count | total | iterations) != 0) {
+            target.add(row, col, count, total, iterations);
+        }
+    }
+
+    private static String[] paths(int[] states, String[] phases) {
+        String[] paths = new String[states.length];
+        for (int i = 0; i < states.length; i++) {
+            paths[i] = states[i] >= 0 && states[i] < phases.length ? phases[states[i]] : null;
+        }
+        return paths;
+    }
+
+    private static String[] paths(String[] states, String[] phases) {
+        int[] ids = new int[states.length];
+        for (int i = 0; i < states.length; i++) {
+            ids[i] = Integer.parseInt(states[i]);
+        }
+        return paths(ids, phases);
+    }
+
+    /**
+     * @param request text of a {@code .request} entry, such as
+     *                {@code HotSpotCompilation-42[java.lang.String.hashCode()] #7}
+     * @return the method in brackets, or the request without the index when
+     * there is none
+     */
+    static String methodOf(String request) {
+        String identifier = request.strip();
+        int index = identifier.lastIndexOf(" #");
+        if (index >= 0) {
+            identifier = identifier.substring(0, index);
+        }
+        int start = identifier.indexOf('[');
+        int end = identifier.lastIndexOf(']');
+        return start >= 0 && end > start ? identifier.substring(start + 1, end) : identifier;
+    }
+
+    private static BinaryDumpReader reader(RunSource run, byte[] data) throws IOException {
+        return new BinaryDumpReader(new ByteArrayInputStream(data), run.getStrings());
+    }
+
+    private static String text(byte[] data) {
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static String[] lines(String text) {
+        return text.isEmpty() ? new String[0] : text.split("\n");
+    }
+
+    /**
+     * Writes {@code depmat.csv}, {@code nodemat.csv} and {@code timing.csv}.
+     * Matrices are written one cell per line, durations are in microseconds.
+     *
+     * @param dir output directory
+     * @throws IOException when writing fails
+     */
+    void writeCsv(File dir) throws IOException {
+        try (Writer out = csv(dir, "depmat.csv", "phase,origin,count,total,iterations")) {
+            writeCells(out, "", depMat);
+        }
+        try (Writer out = csv(dir, "nodemat.csv", "boundary,phase,class,count,total,iterations")) {
+            writeCells(out, "entry,", nodeMatEntry);
+            writeCells(out, "exit,", nodeMatExit);
+        }
+        try (Writer out = csv(dir, "timing.csv", "method,compilations,total_us,max_us")) {
+            for (String method : timing.methods()) {
+                long[] row = timing.get(method);
+                out.write(quote(method) + "," + row[0] + "," + row[1] + "," + row[2] + "\n");
+            }
+        }
+    }
+
+    private static Writer csv(File dir, String name, String header) throws IOException {
+        BufferedWriter out = Files.newBufferedWriter(new File(dir, name).toPath(), StandardCharsets.UTF_8);
+        out.write(header + "\n");
+        return out;
+    }
+
+    private static void writeCells(Writer out, String prefix, ConcurrentCounterMatrix<String, String> matrix) throws IOException {
+        List<String> cols = matrix.colKeys();
+        for (String row : matrix.rowKeys()) {
+            for (String col : cols) {
+                long[] cell = matrix.get(row, col);
+                if (cell != null) {
+                    out.write(prefix + quote(row) + "," + quote(col) + "," + cell[0] + "," + cell[1] + "," + cell[2] + "\n");
+                }
+            }
+        }
+    }
+
+    private static String quote(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Writes {@code depmat.bin}, {@code nodemat.bin} and {@code timing.bin}
+     * with their string table {@code strings.bin}, readable by
+     * {@link BinaryDumpReader}.
+     * <p>
+     * Layouts: depmat - phase paths (string list), then the matrix with rows
+     * and columns in that order; nodemat - node class names (string list),
+     * phase paths (string list), entry and exit matrix; timing - methods
+     * (string list), then for every method the number of compilations, total
+     * and maximal duration in microseconds.
+     *
+     * @param dir output directory
+     * @throws IOException when writing fails
+     */
+    void writeBinary(File dir) throws IOException {
+        StringTable strings = new StringTable();
+
+        var phaseSet = new TreeSet<String>(depMat.rowKeys());
+        phaseSet.addAll(depMat.colKeys());
+        var phases = List.copyOf(phaseSet);
+        BinaryDumpWriter depMatOut = new BinaryDumpWriter(strings, "depmat");
+        depMatOut.writeStringList(phases);
+        depMatOut.writeMatrix(depMat, phases, phases);
+
+        var nodeClassSet = new TreeSet<String>(nodeMatEntry.colKeys());
+        nodeClassSet.addAll(nodeMatExit.colKeys());
+        var nodeClasses = List.copyOf(nodeClassSet);
+        var nodePhaseSet = new TreeSet<String>(nodeMatEntry.rowKeys());
+        nodePhaseSet.addAll(nodeMatExit.rowKeys());
+        var nodePhases = List.copyOf(nodePhaseSet);
+        BinaryDumpWriter nodeMatOut = new BinaryDumpWriter(strings, "nodemat");
+        nodeMatOut.writeStringList(nodeClasses);
+        nodeMatOut.writeStringList(nodePhases);
+        nodeMatOut.writeMatrix(nodeMatEntry, nodePhases, nodeClasses);
+        nodeMatOut.writeMatrix(nodeMatExit, nodePhases, nodeClasses);
+
+        var methods = timing.methods();
+        BinaryDumpWriter timingOut = new BinaryDumpWriter(strings, "timing");
+        timingOut.writeStringList(methods);
+        for (String method : methods) {
+            for (long value : timing.get(method)) {
+                timingOut.writeVarLong(value);
+            }
+        }
+
+        // the table is appended to, so start from scratch
+        File stringFile = new File(dir, StringTable.FILE_NAME);
+        Files.deleteIfExists(stringFile.toPath());
+        strings.appendTo(stringFile);
+        Files.write(new File(dir, "depmat.bin").toPath(), depMatOut.toByteArray());
+        Files.write(new File(dir, "nodemat.bin").toPath(), nodeMatOut.toByteArray());
+        Files.write(new File(dir, "timing.bin").toPath(), timingOut.toByteArray());
+    }
+}
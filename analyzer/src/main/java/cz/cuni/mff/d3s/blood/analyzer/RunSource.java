@@ -0,0 +1,159 @@
+package cz.cuni.mff.d3s.blood.analyzer;
+
+import cz.cuni.mff.d3s.blood.report.format.DumpArchiveReader;
+import cz.cuni.mff.d3s.blood.report.format.StringTable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Entries of one run directory, either one file per entry or an archive.
+ * Only the list of compilations is loaded on opening, entries are read on
+ * demand. Safe for use by multiple threads.
+ */
+abstract class RunSource implements AutoCloseable {
+
+    private static final Pattern REQUEST_FILE = Pattern.compile("([0-9a-f]+)\\.request(\\.gz)?");
+
+    private final File runDir;
+    private final StringTable strings;
+
+    private RunSource(File runDir) throws IOException {
+        this.runDir = runDir;
+        File stringFile = new File(runDir, StringTable.FILE_NAME);
+        this.strings = stringFile.isFile() ? StringTable.read(stringFile) : new StringTable();
+    }
+
+    /**
+     * @param dir any directory
+     * @return true when the directory contains dumps of a run
+     */
+    static boolean isRun(File dir) throws IOException {
+        if (DumpArchiveReader.isArchive(dir)) {
+            return true;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir.toPath())) {
+            for (Path file : files) {
+                if (REQUEST_FILE.matcher(file.getFileName().toString()).matches()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static RunSource open(File runDir) throws IOException {
+        return DumpArchiveReader.isArchive(runDir) ? new Archive(runDir) : new SeparateFiles(runDir);
+    }
+
+    File getRunDir() {
+        return runDir;
+    }
+
+    /**
+     * @return string table of binary entries, empty when the run has none
+     */
+    StringTable getStrings() {
+        return strings;
+    }
+
+    /**
+     * @return identifiers of all compilations of the run
+     */
+    abstract List<String> getIds();
+
+    /**
+     * @param id       identifier of a compilation
+     * @param dumpType type of the entry, such as {@code depmat.bin}
+     * @return uncompressed data, or null when there is no such entry
+     * @throws IOException when the entry cannot be read
+     */
+    abstract byte[] read(String id, String dumpType) throws IOException;
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * Run written one file per entry.
+     */
+    private static final class SeparateFiles extends RunSource {
+
+        private final List<String> ids = new ArrayList<>();
+
+        private SeparateFiles(File runDir) throws IOException {
+            super(runDir);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(runDir.toPath())) {
+                for (Path file : files) {
+                    Matcher matcher = REQUEST_FILE.matcher(file.getFileName().toString());
+                    if (matcher.matches()) {
+                        ids.add(matcher.group(1));
+                    }
+                }
+            }
+        }
+
+        @Override
+        List<String> getIds() {
+            return ids;
+        }
+
+        @Override
+        byte[] read(String id, String dumpType) throws IOException {
+            File compressed = new File(getRunDir(), id + "." + dumpType + ".gz");
+            if (compressed.isFile()) {
+                try (InputStream in = new GZIPInputStream(Files.newInputStream(compressed.toPath()), 1 << 16)) {
+                    return readAll(in);
+                }
+            }
+            File plain = new File(getRunDir(), id + "." + dumpType);
+            return plain.isFile() ? Files.readAllBytes(plain.toPath()) : null;
+        }
+
+        private static byte[] readAll(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 14);
+            in.transferTo(out);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Run written in archive mode.
+     */
+    private static final class Archive extends RunSource {
+
+        private final DumpArchiveReader reader;
+        private final List<String> ids;
+
+        private Archive(File runDir) throws IOException {
+            super(runDir);
+            reader = DumpArchiveReader.open(runDir);
+            ids = List.copyOf(reader.getIds());
+        }
+
+        @Override
+        List<String> getIds() {
+            return ids;
+        }
+
+        @Override
+        byte[] read(String id, String dumpType) throws IOException {
+            return reader.read(id, dumpType);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
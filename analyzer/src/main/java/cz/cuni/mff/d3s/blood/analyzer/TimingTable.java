@@ -0,0 +1,54 @@
+package cz.cuni.mff.d3s.blood.analyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compilation durations summed by method. Can be updated from many threads at
+ * once.
+ */
+final class TimingTable {
+
+    private final ConcurrentHashMap<String, Row> rows = new ConcurrentHashMap<>();
+
+    /**
+     * @param method   method of the compilation, as written in its request
+     * @param duration duration of the compilation in microseconds
+     */
+    void add(String method, long duration) {
+        Row row = rows.get(method);
+        if (row == null) {
+            row = rows.computeIfAbsent(method, k -> new Row());
+        }
+        row.compilations.increment();
+        row.total.add(duration);
+        row.max.accumulate(duration);
+    }
+
+    /**
+     * @return sorted methods
+     */
+    List<String> methods() {
+        return new ArrayList<>(new TreeSet<>(rows.keySet()));
+    }
+
+    /**
+     * @return number of compilations, total and maximal duration in
+     * microseconds
+     */
+    long[] get(String method) {
+        Row row = rows.get(method);
+        return new long[]{row.compilations.sum(), row.total.sum(), row.max.get()};
+    }
+
+    private static final class Row {
+
+        private final LongAdder compilations = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    }
+}
@@ -0,0 +1,115 @@
+package cz.cuni.mff.d3s.blood.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the method handles of {@code NodeTracker} with the
+ * {@link Method#invoke} calls they replaced. Both read and write the node info
+ * slot of {@link StandInNode}, whose private accessors have the signatures of
+ * those of Graal's {@code Node}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NodeInfoBenchmark {
+
+    private static final Method GET_NODE_INFO;
+    private static final Method SET_NODE_INFO;
+    private static final MethodHandle GET_CREATION_PHASE;
+    private static final MethodHandle SET_CREATION_PHASE;
+
+    static {
+        try {
+            // the same resolution as in NodeTracker, before and after
+            GET_NODE_INFO = StandInNode.class.getDeclaredMethod("getNodeInfo", Class.class);
+            SET_NODE_INFO = StandInNode.class.getDeclaredMethod("setNodeInfo", Class.class, Object.class);
+            GET_NODE_INFO.setAccessible(true);
+            SET_NODE_INFO.setAccessible(true);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            GET_CREATION_PHASE = MethodHandles.insertArguments(lookup.unreflect(GET_NODE_INFO), 1, PhaseKey.class)
+                    .asType(MethodType.methodType(Object.class, StandInNode.class));
+            SET_CREATION_PHASE = MethodHandles.insertArguments(lookup.unreflect(SET_NODE_INFO), 1, PhaseKey.class)
+                    .asType(MethodType.methodType(void.class, StandInNode.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private StandInNode node;
+    private PhaseKey phase;
+
+    @Setup
+    public void setup() {
+        node = new StandInNode();
+        phase = new PhaseKey(42);
+    }
+
+    @Benchmark
+    public Object getReflective() throws ReflectiveOperationException {
+        return GET_NODE_INFO.invoke(node, PhaseKey.class);
+    }
+
+    @Benchmark
+    public Object getMethodHandle() throws Throwable {
+        return (Object) GET_CREATION_PHASE.invokeExact(node);
+    }
+
+    @Benchmark
+    public void setReflective() throws ReflectiveOperationException {
+        SET_NODE_INFO.invoke(node, PhaseKey.class, phase);
+    }
+
+    @Benchmark
+    public void setMethodHandle() throws Throwable {
+        SET_CREATION_PHASE.invokeExact(node, (Object) phase);
+    }
+
+    /**
+     * Stand-in for {@code PhaseID}, the key of the node info slot.
+     */
+    static final class PhaseKey {
+
+        private final int id;
+
+        PhaseKey(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Stand-in for Graal's {@code Node}, with a node info slot holding a
+     * single key as in nodes tracked by blood.
+     */
+    static class StandInNode {
+
+        private Object annotation;
+
+        @SuppressWarnings("unchecked")
+        private <T> T getNodeInfo(Class<T> clazz) {
+            return clazz.isInstance(annotation) ? (T) annotation : null;
+        }
+
+        private <T> void setNodeInfo(Class<T> clazz, T value) {
+            annotation = value;
+        }
+    }
+}
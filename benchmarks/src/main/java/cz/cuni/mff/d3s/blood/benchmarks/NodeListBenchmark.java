@@ -0,0 +1,206 @@
+package cz.cuni.mff.d3s.blood.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cost of the {@code Node.init} hook of {@code NodeListInject} per created
+ * node. The old hook looked the collector up in a map by its class, timed
+ * itself and added the node class to a {@link LinkedHashSet}. The new one
+ * checks a per-compilation bitset indexed by a {@link ClassValue} and only
+ * does more work for a class not seen yet.
+ * <p>
+ * Every invocation creates {@value #NODES} nodes of {@value #CLASSES} stand-in
+ * node classes, most of them of a few common ones as in real graphs. A new
+ * collector is created for every invocation, as for every compilation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NodeListBenchmark {
+
+    private static final int NODES = 4096;
+    private static final int CLASSES = 16;
+
+    private Class<?>[] nodeClasses;
+
+    private HashMap<Class<?>, Object> collectors;
+    private HashMap<Class<?>, Long> hookNanos;
+    private OldCollector oldCollector;
+    private NewCollector newCollector;
+
+    @Setup(Level.Trial)
+    public void setupNodes() {
+        Class<?>[] classes = {
+                N0.class, N1.class, N2.class, N3.class, N4.class, N5.class, N6.class, N7.class,
+                N8.class, N9.class, N10.class, N11.class, N12.class, N13.class, N14.class, N15.class
+        };
+        Random random = new Random(42);
+        nodeClasses = new Class<?>[NODES];
+        for (int i = 0; i < NODES; i++) {
+            // skewed towards the first classes, like constants and parameters
+            nodeClasses[i] = classes[Math.min(CLASSES - 1, (int) Math.abs(random.nextGaussian() * CLASSES / 3))];
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setupCompilation() {
+        oldCollector = new OldCollector();
+        newCollector = new NewCollector();
+        collectors = new HashMap<>();
+        collectors.put(OldCollector.class, oldCollector);
+        hookNanos = new HashMap<>();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NODES)
+    public Object oldHook() {
+        for (Class<?> nodeClass : nodeClasses) {
+            // Manager.isSampled(Class) and Manager.get(Class)
+            if (collectors.containsKey(OldCollector.class)) {
+                long start = System.nanoTime();
+                ((OldCollector) collectors.get(OldCollector.class)).onNodeInstantiation(nodeClass);
+                hookNanos.merge(OldCollector.class, System.nanoTime() - start, Long::sum);
+            }
+        }
+        return oldCollector;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NODES)
+    public Object newHook() {
+        for (Class<?> nodeClass : nodeClasses) {
+            if (!newCollector.hasSeen(nodeClass)) {
+                newCollector.onNodeInstantiation(nodeClass);
+            }
+        }
+        return newCollector;
+    }
+
+    /**
+     * {@code NodeListCollector} before, with a stand-in node base class.
+     */
+    static final class OldCollector {
+
+        private final LinkedHashSet<Class<?>> nodeClasses = new LinkedHashSet<>();
+
+        void onNodeInstantiation(Class<?> nodeClass) {
+            if (!StandInNode.class.isAssignableFrom(nodeClass)) {
+                throw new UnsupportedOperationException("Classes passed into this method should be only ancestors of class Node");
+            }
+            nodeClasses.add(nodeClass);
+        }
+    }
+
+    /**
+     * {@code NodeListCollector} after, with a stand-in node base class.
+     */
+    static final class NewCollector {
+
+        private static final AtomicInteger classCount = new AtomicInteger();
+        private static final ClassValue<Integer> classIndices = new ClassValue<>() {
+            @Override
+            protected Integer computeValue(Class<?> clazz) {
+                return classCount.getAndIncrement();
+            }
+        };
+
+        private long[] seen = new long[(classCount.get() >>> 6) + 1];
+        private final ArrayList<Class<?>> nodeClasses = new ArrayList<>();
+
+        boolean hasSeen(Class<?> nodeClass) {
+            int index = classIndices.get(nodeClass);
+            int word = index >>> 6;
+            return word < seen.length && (seen[word] & (1L << index)) != 0;
+        }
+
+        void onNodeInstantiation(Class<?> nodeClass) {
+            if (!StandInNode.class.isAssignableFrom(nodeClass)) {
+                throw new UnsupportedOperationException("Classes passed into this method should be only ancestors of class Node");
+            }
+            if (hasSeen(nodeClass)) {
+                return;
+            }
+
+            int index = classIndices.get(nodeClass);
+            int word = index >>> 6;
+            if (word >= seen.length) {
+                seen = Arrays.copyOf(seen, Math.max(word + 1, seen.length * 2));
+            }
+            seen[word] |= 1L << index;
+            nodeClasses.add(nodeClass);
+        }
+    }
+
+    static class StandInNode {
+    }
+
+    static final class N0 extends StandInNode {
+    }
+
+    static final class N1 extends StandInNode {
+    }
+
+    static final class N2 extends StandInNode {
+    }
+
+    static final class N3 extends StandInNode {
+    }
+
+    static final class N4 extends StandInNode {
+    }
+
+    static final class N5 extends StandInNode {
+    }
+
+    static final class N6 extends StandInNode {
+    }
+
+    static final class N7 extends StandInNode {
+    }
+
+    static final class N8 extends StandInNode {
+    }
+
+    static final class N9 extends StandInNode {
+    }
+
+    static final class N10 extends StandInNode {
+    }
+
+    static final class N11 extends StandInNode {
+    }
+
+    static final class N12 extends StandInNode {
+    }
+
+    static final class N13 extends StandInNode {
+    }
+
+    static final class N14 extends StandInNode {
+    }
+
+    static final class N15 extends StandInNode {
+    }
+}
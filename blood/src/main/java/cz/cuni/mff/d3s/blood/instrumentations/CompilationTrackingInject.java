@@ -1,10 +1,12 @@
 package cz.cuni.mff.d3s.blood.instrumentations;
 
-import ch.usi.dag.disl.annotation.After;
+import ch.usi.dag.disl.annotation.AfterReturning;
+import ch.usi.dag.disl.annotation.AfterThrowing;
 import ch.usi.dag.disl.annotation.Before;
 import ch.usi.dag.disl.dynamiccontext.DynamicContext;
 import ch.usi.dag.disl.marker.BodyMarker;
 import cz.cuni.mff.d3s.blood.report.Manager;
+import cz.cuni.mff.d3s.blood.utils.Miscellaneous;
 import org.graalvm.compiler.core.common.CompilationIdentifier;
 import org.graalvm.compiler.nodes.StructuredGraph;
 
@@ -16,15 +18,37 @@ public class CompilationTrackingInject {
         var id = graph.compilationId();
 
         String identifier = id.toString(CompilationIdentifier.Verbosity.DETAILED);
-        Manager.markCompilationStart(identifier);
+        // stubs have no method, fall back to the identifier so that they can still be filtered
+        String signature = graph.method() != null ? Miscellaneous.getSignatureOfMethod(graph.method()) : identifier;
+        Manager.markCompilationStart(identifier, signature, graph.isOSR());
     }
 
-    @After(marker = BodyMarker.class, scope = "void GraalCompiler.emitFrontEnd(*,*,*,*,*,*,*)")
-    public static void markNewCompilationEnd(DynamicContext di) {
+    // the front end only ends the compilation when it bails out, otherwise the back end follows
+    @AfterThrowing(marker = BodyMarker.class, scope = "void GraalCompiler.emitFrontEnd(*,*,*,*,*,*,*)")
+    public static void markFailedCompilationEnd(DynamicContext di) {
         StructuredGraph graph = di.getMethodArgumentValue(2, StructuredGraph.class);
         var id = graph.compilationId();
 
         String identifier = id.toString(CompilationIdentifier.Verbosity.DETAILED);
-        Manager.markCompilationEnd(identifier);
+        Manager.markCompilationEnd(identifier, graph.getNodeCount(), true);
+    }
+
+    @AfterReturning(marker = BodyMarker.class, scope = "void GraalCompiler.emitBackEnd(..)")
+    public static void markNewCompilationEnd(DynamicContext di) {
+        StructuredGraph graph = di.getMethodArgumentValue(0, StructuredGraph.class);
+        var id = graph.compilationId();
+
+        String identifier = id.toString(CompilationIdentifier.Verbosity.DETAILED);
+        Manager.markCompilationEnd(identifier, graph.getNodeCount(), false);
+    }
+
+    // code generation can bail out too, for example when register allocation fails
+    @AfterThrowing(marker = BodyMarker.class, scope = "void GraalCompiler.emitBackEnd(..)")
+    public static void markFailedBackEndCompilationEnd(DynamicContext di) {
+        StructuredGraph graph = di.getMethodArgumentValue(0, StructuredGraph.class);
+        var id = graph.compilationId();
+
+        String identifier = id.toString(CompilationIdentifier.Verbosity.DETAILED);
+        Manager.markCompilationEnd(identifier, graph.getNodeCount(), true);
     }
 }
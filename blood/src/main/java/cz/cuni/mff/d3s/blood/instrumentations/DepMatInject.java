@@ -4,8 +4,11 @@ import ch.usi.dag.disl.annotation.After;
 import ch.usi.dag.disl.annotation.Before;
 import ch.usi.dag.disl.dynamiccontext.DynamicContext;
 import ch.usi.dag.disl.marker.BodyMarker;
+import cz.cuni.mff.d3s.blood.report.GraphScanner;
+import cz.cuni.mff.d3s.blood.report.DumpMap;
 import cz.cuni.mff.d3s.blood.report.Manager;
 import cz.cuni.mff.d3s.blood.tools.depmat.DepMatCollector;
+import org.graalvm.compiler.graph.Node;
 import org.graalvm.compiler.nodes.StructuredGraph;
 
 /**
@@ -17,17 +20,41 @@ public class DepMatInject {
 
     @Before(marker = BodyMarker.class, scope = "void BasePhase.apply(org.graalvm.compiler.nodes.StructuredGraph, *)")
     public static void beforePhaseRun(DynamicContext di) {
-        Object thiz = di.getThis();
-        StructuredGraph graph = di.getMethodArgumentValue(0, StructuredGraph.class);
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(DepMatCollector.SLOT)) {
+            StructuredGraph graph = di.getMethodArgumentValue(0, StructuredGraph.class);
 
-        Manager.get(DepMatCollector.class).prePhase(graph, thiz.getClass());
+            // walks the graph once for all collectors, accounts the time itself
+            GraphScanner.scan(context, graph, true, DepMatCollector.SLOT);
+        }
     }
 
     @After(marker = BodyMarker.class, scope = "void BasePhase.apply(org.graalvm.compiler.nodes.StructuredGraph, *)")
     public static void afterPhaseRun(DynamicContext di) {
-        Object thiz = di.getThis();
-        StructuredGraph graph = di.getMethodArgumentValue(0, StructuredGraph.class);
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(DepMatCollector.SLOT)) {
+            StructuredGraph graph = di.getMethodArgumentValue(0, StructuredGraph.class);
 
-        Manager.get(DepMatCollector.class).postPhase(graph, thiz.getClass());
+            // walks the graph once for all collectors, accounts the time itself
+            GraphScanner.scan(context, graph, false, DepMatCollector.SLOT);
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "void Graph.register(org.graalvm.compiler.graph.Node)")
+    public static void afterNodeRegistered(DynamicContext di) {
+        if (DepMatCollector.MODE != DepMatCollector.Mode.SCAN) {
+            DumpMap context = Manager.getContext();
+            if (context != null && context.isEnabled(DepMatCollector.SLOT)) {
+                Node node = di.getMethodArgumentValue(0, Node.class);
+
+                if (context.shouldTimeEvent(DepMatCollector.SLOT)) {
+                    long start = System.nanoTime();
+                    context.get(DepMatCollector.SLOT).onNodeAdded(node);
+                    context.recordEventHookTime(DepMatCollector.SLOT, System.nanoTime() - start);
+                } else {
+                    context.get(DepMatCollector.SLOT).onNodeAdded(node);
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,50 @@
+package cz.cuni.mff.d3s.blood.instrumentations;
+
+import ch.usi.dag.disl.annotation.After;
+import ch.usi.dag.disl.annotation.Before;
+import ch.usi.dag.disl.dynamiccontext.DynamicContext;
+import ch.usi.dag.disl.marker.BodyMarker;
+import cz.cuni.mff.d3s.blood.report.DumpMap;
+import cz.cuni.mff.d3s.blood.report.Manager;
+import cz.cuni.mff.d3s.blood.tools.nodechurn.NodeChurnCollector;
+
+/**
+ * Counts nodes added and deleted, inputs changed and usages replaced in each phase. Phases that keep rebuilding the
+ * graph look the same as idle ones in nodemat, this tells them apart.
+ */
+public class NodeChurnInject {
+
+    // the hooks only increment a counter, they are not timed as reading the clock would cost more
+
+    @After(marker = BodyMarker.class, scope = "void Graph.register(org.graalvm.compiler.graph.Node)")
+    public static void afterNodeRegistered(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(NodeChurnCollector.SLOT)) {
+            context.get(NodeChurnCollector.SLOT).onChange(NodeChurnCollector.ADDED);
+        }
+    }
+
+    @Before(marker = BodyMarker.class, scope = "void Graph.unregister(org.graalvm.compiler.graph.Node)")
+    public static void beforeNodeUnregistered(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(NodeChurnCollector.SLOT)) {
+            context.get(NodeChurnCollector.SLOT).onChange(NodeChurnCollector.DELETED);
+        }
+    }
+
+    @Before(marker = BodyMarker.class, scope = "void Node.maybeNotifyInputChanged(org.graalvm.compiler.graph.Node)")
+    public static void beforeInputChanged(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(NodeChurnCollector.SLOT)) {
+            context.get(NodeChurnCollector.SLOT).onChange(NodeChurnCollector.INPUT_CHANGED);
+        }
+    }
+
+    @Before(marker = BodyMarker.class, scope = "void Node.replaceAtUsages(org.graalvm.compiler.graph.Node)")
+    public static void beforeUsagesReplaced(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(NodeChurnCollector.SLOT)) {
+            context.get(NodeChurnCollector.SLOT).onChange(NodeChurnCollector.USAGES_REPLACED);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package cz.cuni.mff.d3s.blood.instrumentations;
 import ch.usi.dag.disl.annotation.After;
 import ch.usi.dag.disl.dynamiccontext.DynamicContext;
 import ch.usi.dag.disl.marker.BodyMarker;
+import cz.cuni.mff.d3s.blood.report.DumpMap;
 import cz.cuni.mff.d3s.blood.report.Manager;
 import cz.cuni.mff.d3s.blood.tools.nodelist.NodeListCollector;
 
@@ -12,7 +13,18 @@ import cz.cuni.mff.d3s.blood.tools.nodelist.NodeListCollector;
 public class NodeListInject {
 
     @After(marker = BodyMarker.class, scope = "void Node.init(*)")
-    public static void afterNodeInit(DynamicContext context) {
-        Manager.get(NodeListCollector.class).onNodeInstantiation(context.getThis().getClass());
+    public static void afterNodeInit(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(NodeListCollector.SLOT)) {
+            NodeListCollector collector = context.get(NodeListCollector.SLOT);
+            Class<?> nodeClass = di.getThis().getClass();
+
+            // most nodes are of an already seen class, timing those would cost more than the check
+            if (!collector.hasSeen(nodeClass)) {
+                long start = System.nanoTime();
+                collector.onNodeInstantiation(nodeClass);
+                context.recordHookTime(NodeListCollector.SLOT, System.nanoTime() - start);
+            }
+        }
     }
 }
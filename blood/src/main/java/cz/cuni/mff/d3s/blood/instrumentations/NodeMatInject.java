@@ -4,8 +4,12 @@ import ch.usi.dag.disl.annotation.After;
 import ch.usi.dag.disl.annotation.Before;
 import ch.usi.dag.disl.dynamiccontext.DynamicContext;
 import ch.usi.dag.disl.marker.BodyMarker;
+import cz.cuni.mff.d3s.blood.report.GraphScanner;
+import cz.cuni.mff.d3s.blood.report.DumpMap;
 import cz.cuni.mff.d3s.blood.report.Manager;
 import cz.cuni.mff.d3s.blood.tools.nodemat.NodeMatCollector;
+import org.graalvm.compiler.graph.Graph;
+import org.graalvm.compiler.graph.Node;
 import org.graalvm.compiler.nodes.StructuredGraph;
 
 /**
@@ -14,17 +18,61 @@ import org.graalvm.compiler.nodes.StructuredGraph;
 public class NodeMatInject {
     @Before(marker = BodyMarker.class, scope = "void BasePhase.apply(org.graalvm.compiler.nodes.StructuredGraph, *)")
     public static void beforePhaseRun(DynamicContext di) {
-        Object thiz = di.getThis();
-        StructuredGraph graph = di.getMethodArgumentValue(0, StructuredGraph.class);
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(NodeMatCollector.SLOT)) {
+            StructuredGraph graph = di.getMethodArgumentValue(0, StructuredGraph.class);
 
-        Manager.get(NodeMatCollector.class).prePhase(graph, thiz.getClass());
+            // walks the graph once for all collectors, accounts the time itself
+            GraphScanner.scan(context, graph, true, NodeMatCollector.SLOT);
+        }
     }
 
     @After(marker = BodyMarker.class, scope = "void BasePhase.apply(org.graalvm.compiler.nodes.StructuredGraph, *)")
     public static void afterPhaseRun(DynamicContext di) {
-        Object thiz = di.getThis();
-        StructuredGraph graph = di.getMethodArgumentValue(0, StructuredGraph.class);
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(NodeMatCollector.SLOT)) {
+            StructuredGraph graph = di.getMethodArgumentValue(0, StructuredGraph.class);
 
-        Manager.get(NodeMatCollector.class).postPhase(graph, thiz.getClass());
+            // walks the graph once for all collectors, accounts the time itself
+            GraphScanner.scan(context, graph, false, NodeMatCollector.SLOT);
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "void Graph.register(org.graalvm.compiler.graph.Node)")
+    public static void afterNodeRegistered(DynamicContext di) {
+        if (NodeMatCollector.MODE != NodeMatCollector.Mode.SCAN) {
+            DumpMap context = Manager.getContext();
+            if (context != null && context.isEnabled(NodeMatCollector.SLOT)) {
+                Graph graph = (Graph) di.getThis();
+                Node node = di.getMethodArgumentValue(0, Node.class);
+
+                if (context.shouldTimeEvent(NodeMatCollector.SLOT)) {
+                    long start = System.nanoTime();
+                    context.get(NodeMatCollector.SLOT).onNodeAdded(graph, node);
+                    context.recordEventHookTime(NodeMatCollector.SLOT, System.nanoTime() - start);
+                } else {
+                    context.get(NodeMatCollector.SLOT).onNodeAdded(graph, node);
+                }
+            }
+        }
+    }
+
+    @Before(marker = BodyMarker.class, scope = "void Graph.unregister(org.graalvm.compiler.graph.Node)")
+    public static void beforeNodeUnregistered(DynamicContext di) {
+        if (NodeMatCollector.MODE != NodeMatCollector.Mode.SCAN) {
+            DumpMap context = Manager.getContext();
+            if (context != null && context.isEnabled(NodeMatCollector.SLOT)) {
+                Graph graph = (Graph) di.getThis();
+                Node node = di.getMethodArgumentValue(0, Node.class);
+
+                if (context.shouldTimeEvent(NodeMatCollector.SLOT)) {
+                    long start = System.nanoTime();
+                    context.get(NodeMatCollector.SLOT).onNodeRemoved(graph, node);
+                    context.recordEventHookTime(NodeMatCollector.SLOT, System.nanoTime() - start);
+                } else {
+                    context.get(NodeMatCollector.SLOT).onNodeRemoved(graph, node);
+                }
+            }
+        }
     }
 }
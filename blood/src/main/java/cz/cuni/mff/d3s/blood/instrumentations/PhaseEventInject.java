@@ -0,0 +1,39 @@
+package cz.cuni.mff.d3s.blood.instrumentations;
+
+import ch.usi.dag.disl.annotation.After;
+import ch.usi.dag.disl.annotation.Before;
+import ch.usi.dag.disl.dynamiccontext.DynamicContext;
+import ch.usi.dag.disl.marker.BodyMarker;
+import cz.cuni.mff.d3s.blood.report.DumpMap;
+import cz.cuni.mff.d3s.blood.report.Manager;
+import org.graalvm.compiler.nodes.StructuredGraph;
+
+/**
+ * Emits a JDK Flight Recorder event for every optimization phase run, with its stack depth and node counts. Requires
+ * blood.sink=jfr or blood.sink=both.
+ */
+public class PhaseEventInject {
+
+    // the innermost snippets, so that the events don't include the time of other hooks
+    @Before(marker = BodyMarker.class, scope = "void BasePhase.apply(org.graalvm.compiler.nodes.StructuredGraph, *)", order = 0)
+    public static void beforePhaseRun(DynamicContext di) {
+        if (Manager.isJfrEnabled()) {
+            DumpMap context = Manager.getContext();
+            if (context != null) {
+                StructuredGraph graph = di.getMethodArgumentValue(0, StructuredGraph.class);
+                context.getJfrRecorder().enterPhase(di.getThis().getClass(), graph.getNodeCount());
+            }
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "void BasePhase.apply(org.graalvm.compiler.nodes.StructuredGraph, *)", order = 0)
+    public static void afterPhaseRun(DynamicContext di) {
+        if (Manager.isJfrEnabled()) {
+            DumpMap context = Manager.getContext();
+            if (context != null) {
+                StructuredGraph graph = di.getMethodArgumentValue(0, StructuredGraph.class);
+                context.getJfrRecorder().exitPhase(graph.getNodeCount());
+            }
+        }
+    }
+}
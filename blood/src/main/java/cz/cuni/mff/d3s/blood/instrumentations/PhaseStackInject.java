@@ -4,21 +4,151 @@ import ch.usi.dag.disl.annotation.After;
 import ch.usi.dag.disl.annotation.Before;
 import ch.usi.dag.disl.dynamiccontext.DynamicContext;
 import ch.usi.dag.disl.marker.BodyMarker;
+import cz.cuni.mff.d3s.blood.report.DumpMap;
 import cz.cuni.mff.d3s.blood.report.Manager;
+import cz.cuni.mff.d3s.blood.tools.phasestack.CompilerStage;
 import cz.cuni.mff.d3s.blood.tools.phasestack.PhaseStackCollector;
 
+/**
+ * Tracks which phases, LIR phases and compiler stages are running. Other collectors refer to its phase stack states, so
+ * it is only disabled together with all of them.
+ */
 public class PhaseStackInject {
     @Before(marker = BodyMarker.class, scope = "void BasePhase.apply(org.graalvm.compiler.nodes.StructuredGraph, *)", order = 1000)
     public static void beforePhaseRun(DynamicContext di) {
-        Object thiz = di.getThis();
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(PhaseStackCollector.SLOT)) {
+            long start = System.nanoTime();
+            Object thiz = di.getThis();
 
-        Manager.get(PhaseStackCollector.class).push(thiz.getClass());
+            context.get(PhaseStackCollector.SLOT).push(thiz.getClass());
+            context.recordHookTime(PhaseStackCollector.SLOT, System.nanoTime() - start);
+        }
     }
 
     @After(marker = BodyMarker.class, scope = "void BasePhase.apply(org.graalvm.compiler.nodes.StructuredGraph, *)", order = 1000)
     public static void afterPhaseRun(DynamicContext di) {
-        Object thiz = di.getThis();
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(PhaseStackCollector.SLOT)) {
+            long start = System.nanoTime();
+            Object thiz = di.getThis();
 
-        Manager.get(PhaseStackCollector.class).pop(thiz.getClass());
+            context.get(PhaseStackCollector.SLOT).pop(thiz.getClass());
+            context.recordHookTime(PhaseStackCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @Before(marker = BodyMarker.class, scope = "void LIRPhase.apply(jdk.vm.ci.code.TargetDescription, org.graalvm.compiler.lir.gen.LIRGenerationResult, *, boolean)", order = 1000)
+    public static void beforeLIRPhaseRun(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(PhaseStackCollector.SLOT)) {
+            long start = System.nanoTime();
+            Object thiz = di.getThis();
+
+            context.get(PhaseStackCollector.SLOT).push(thiz.getClass());
+            context.recordHookTime(PhaseStackCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "void LIRPhase.apply(jdk.vm.ci.code.TargetDescription, org.graalvm.compiler.lir.gen.LIRGenerationResult, *, boolean)", order = 1000)
+    public static void afterLIRPhaseRun(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(PhaseStackCollector.SLOT)) {
+            long start = System.nanoTime();
+            Object thiz = di.getThis();
+
+            context.get(PhaseStackCollector.SLOT).pop(thiz.getClass());
+            context.recordHookTime(PhaseStackCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    // inside the compilation tracking snippets, so that the stages are within the collected compilation;
+    // off by default, as the extra frame changes every path and dumps would not merge with older ones
+    @Before(marker = BodyMarker.class, scope = "void GraalCompiler.emitFrontEnd(*,*,*,*,*,*,*)", order = 90)
+    public static void beforeFrontEndStage(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && CompilerStage.ENABLED && context.isEnabled(PhaseStackCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseStackCollector.SLOT).push(CompilerStage.FrontEnd.class);
+            context.recordHookTime(PhaseStackCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "void GraalCompiler.emitFrontEnd(*,*,*,*,*,*,*)", order = 90)
+    public static void afterFrontEndStage(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && CompilerStage.ENABLED && context.isEnabled(PhaseStackCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseStackCollector.SLOT).pop(CompilerStage.FrontEnd.class);
+            context.recordHookTime(PhaseStackCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @Before(marker = BodyMarker.class, scope = "void GraalCompiler.emitBackEnd(..)", order = 90)
+    public static void beforeBackEndStage(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && CompilerStage.ENABLED && context.isEnabled(PhaseStackCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseStackCollector.SLOT).push(CompilerStage.BackEnd.class);
+            context.recordHookTime(PhaseStackCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "void GraalCompiler.emitBackEnd(..)", order = 90)
+    public static void afterBackEndStage(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && CompilerStage.ENABLED && context.isEnabled(PhaseStackCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseStackCollector.SLOT).pop(CompilerStage.BackEnd.class);
+            context.recordHookTime(PhaseStackCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @Before(marker = BodyMarker.class, scope = "* GraalCompiler.emitLIR(..)", order = 90)
+    public static void beforeLIRGenerationStage(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && CompilerStage.ENABLED && context.isEnabled(PhaseStackCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseStackCollector.SLOT).push(CompilerStage.LIRGeneration.class);
+            context.recordHookTime(PhaseStackCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "* GraalCompiler.emitLIR(..)", order = 90)
+    public static void afterLIRGenerationStage(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && CompilerStage.ENABLED && context.isEnabled(PhaseStackCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseStackCollector.SLOT).pop(CompilerStage.LIRGeneration.class);
+            context.recordHookTime(PhaseStackCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @Before(marker = BodyMarker.class, scope = "void GraalCompiler.emitCode(..)", order = 90)
+    public static void beforeCodeEmissionStage(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && CompilerStage.ENABLED && context.isEnabled(PhaseStackCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseStackCollector.SLOT).push(CompilerStage.CodeEmission.class);
+            context.recordHookTime(PhaseStackCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "void GraalCompiler.emitCode(..)", order = 90)
+    public static void afterCodeEmissionStage(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && CompilerStage.ENABLED && context.isEnabled(PhaseStackCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseStackCollector.SLOT).pop(CompilerStage.CodeEmission.class);
+            context.recordHookTime(PhaseStackCollector.SLOT, System.nanoTime() - start);
+        }
     }
 }
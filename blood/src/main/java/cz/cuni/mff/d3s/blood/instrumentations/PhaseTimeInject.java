@@ -0,0 +1,153 @@
+package cz.cuni.mff.d3s.blood.instrumentations;
+
+import ch.usi.dag.disl.annotation.After;
+import ch.usi.dag.disl.annotation.Before;
+import ch.usi.dag.disl.dynamiccontext.DynamicContext;
+import ch.usi.dag.disl.marker.BodyMarker;
+import cz.cuni.mff.d3s.blood.report.DumpMap;
+import cz.cuni.mff.d3s.blood.report.Manager;
+import cz.cuni.mff.d3s.blood.tools.phasestack.CompilerStage;
+import cz.cuni.mff.d3s.blood.tools.phasetime.PhaseTimeCollector;
+import org.graalvm.compiler.lir.gen.LIRGenerationResult;
+import org.graalvm.compiler.nodes.StructuredGraph;
+
+/**
+ * Measures wall time, CPU time and allocated memory of every optimization phase, LIR phase and compiler stage run, and
+ * LIR instruction counts after LIR phases. Tells which phases to blame when compilation gets slower.
+ */
+public class PhaseTimeInject {
+
+    // innermost snippets, so that the graph walks of other collectors at the phase boundaries are not measured
+    @Before(marker = BodyMarker.class, scope = "void BasePhase.apply(org.graalvm.compiler.nodes.StructuredGraph, *)", order = 0)
+    public static void beforePhaseRun(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(PhaseTimeCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseTimeCollector.SLOT).prePhase();
+            context.recordHookTime(PhaseTimeCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "void BasePhase.apply(org.graalvm.compiler.nodes.StructuredGraph, *)", order = 0)
+    public static void afterPhaseRun(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(PhaseTimeCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseTimeCollector.SLOT).postPhase(di.getMethodArgumentValue(0, StructuredGraph.class));
+            context.recordHookTime(PhaseTimeCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @Before(marker = BodyMarker.class, scope = "void LIRPhase.apply(jdk.vm.ci.code.TargetDescription, org.graalvm.compiler.lir.gen.LIRGenerationResult, *, boolean)", order = 0)
+    public static void beforeLIRPhaseRun(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(PhaseTimeCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseTimeCollector.SLOT).prePhase();
+            context.recordHookTime(PhaseTimeCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "void LIRPhase.apply(jdk.vm.ci.code.TargetDescription, org.graalvm.compiler.lir.gen.LIRGenerationResult, *, boolean)", order = 0)
+    public static void afterLIRPhaseRun(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(PhaseTimeCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseTimeCollector.SLOT).postLIRPhase(di.getMethodArgumentValue(1, LIRGenerationResult.class));
+            context.recordHookTime(PhaseTimeCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    // inside the phase stack snippets, as for phases
+    @Before(marker = BodyMarker.class, scope = "void GraalCompiler.emitFrontEnd(*,*,*,*,*,*,*)", order = 80)
+    public static void beforeFrontEndStage(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && CompilerStage.ENABLED && context.isEnabled(PhaseTimeCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseTimeCollector.SLOT).prePhase();
+            context.recordHookTime(PhaseTimeCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "void GraalCompiler.emitFrontEnd(*,*,*,*,*,*,*)", order = 80)
+    public static void afterFrontEndStage(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && CompilerStage.ENABLED && context.isEnabled(PhaseTimeCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseTimeCollector.SLOT).postPhase();
+            context.recordHookTime(PhaseTimeCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @Before(marker = BodyMarker.class, scope = "void GraalCompiler.emitBackEnd(..)", order = 80)
+    public static void beforeBackEndStage(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && CompilerStage.ENABLED && context.isEnabled(PhaseTimeCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseTimeCollector.SLOT).prePhase();
+            context.recordHookTime(PhaseTimeCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "void GraalCompiler.emitBackEnd(..)", order = 80)
+    public static void afterBackEndStage(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && CompilerStage.ENABLED && context.isEnabled(PhaseTimeCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseTimeCollector.SLOT).postPhase();
+            context.recordHookTime(PhaseTimeCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @Before(marker = BodyMarker.class, scope = "* GraalCompiler.emitLIR(..)", order = 80)
+    public static void beforeLIRGenerationStage(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && CompilerStage.ENABLED && context.isEnabled(PhaseTimeCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseTimeCollector.SLOT).prePhase();
+            context.recordHookTime(PhaseTimeCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "* GraalCompiler.emitLIR(..)", order = 80)
+    public static void afterLIRGenerationStage(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && CompilerStage.ENABLED && context.isEnabled(PhaseTimeCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseTimeCollector.SLOT).postPhase();
+            context.recordHookTime(PhaseTimeCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @Before(marker = BodyMarker.class, scope = "void GraalCompiler.emitCode(..)", order = 80)
+    public static void beforeCodeEmissionStage(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && CompilerStage.ENABLED && context.isEnabled(PhaseTimeCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseTimeCollector.SLOT).prePhase();
+            context.recordHookTime(PhaseTimeCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "void GraalCompiler.emitCode(..)", order = 80)
+    public static void afterCodeEmissionStage(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && CompilerStage.ENABLED && context.isEnabled(PhaseTimeCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(PhaseTimeCollector.SLOT).postPhase();
+            context.recordHookTime(PhaseTimeCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+}
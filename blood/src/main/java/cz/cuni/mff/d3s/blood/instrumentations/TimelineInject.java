@@ -0,0 +1,101 @@
+package cz.cuni.mff.d3s.blood.instrumentations;
+
+import ch.usi.dag.disl.annotation.After;
+import ch.usi.dag.disl.annotation.AfterThrowing;
+import ch.usi.dag.disl.annotation.Before;
+import ch.usi.dag.disl.dynamiccontext.DynamicContext;
+import ch.usi.dag.disl.marker.BodyMarker;
+import cz.cuni.mff.d3s.blood.report.DumpMap;
+import cz.cuni.mff.d3s.blood.report.Manager;
+import cz.cuni.mff.d3s.blood.tools.timeline.TimelineCollector;
+import cz.cuni.mff.d3s.blood.utils.Miscellaneous;
+import org.graalvm.compiler.core.common.CompilationIdentifier;
+import org.graalvm.compiler.nodes.StructuredGraph;
+
+/**
+ * Records when every compilation, optimization phase and LIR phase run begins and ends on which compiler thread.
+ * Written as a Chrome trace, shows how compilations overlap and how busy the compiler threads are.
+ */
+public class TimelineInject {
+
+    // innermost snippets - run after the compilation start is marked and before its end is marked
+    @Before(marker = BodyMarker.class, scope = "void GraalCompiler.emitFrontEnd(*,*,*,*,*,*,*)", order = 0)
+    public static void beforeCompilation(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(TimelineCollector.SLOT)) {
+            long start = System.nanoTime();
+            StructuredGraph graph = di.getMethodArgumentValue(2, StructuredGraph.class);
+
+            String identifier = graph.compilationId().toString(CompilationIdentifier.Verbosity.DETAILED);
+            String method = graph.method() != null ? Miscellaneous.getSignatureOfMethod(graph.method()) : identifier;
+            context.get(TimelineCollector.SLOT).beginCompilation(identifier, method, start);
+            context.recordHookTime(TimelineCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @AfterThrowing(marker = BodyMarker.class, scope = "void GraalCompiler.emitFrontEnd(*,*,*,*,*,*,*)", order = 0)
+    public static void afterFailedCompilation(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(TimelineCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(TimelineCollector.SLOT).endCompilation(start);
+            context.recordHookTime(TimelineCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "void GraalCompiler.emitBackEnd(..)", order = 0)
+    public static void afterCompilation(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(TimelineCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(TimelineCollector.SLOT).endCompilation(start);
+            context.recordHookTime(TimelineCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @Before(marker = BodyMarker.class, scope = "void BasePhase.apply(org.graalvm.compiler.nodes.StructuredGraph, *)", order = 0)
+    public static void beforePhaseRun(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(TimelineCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(TimelineCollector.SLOT).prePhase(di.getThis().getClass(), start);
+            context.recordHookTime(TimelineCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "void BasePhase.apply(org.graalvm.compiler.nodes.StructuredGraph, *)", order = 0)
+    public static void afterPhaseRun(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(TimelineCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(TimelineCollector.SLOT).postPhase(start);
+            context.recordHookTime(TimelineCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @Before(marker = BodyMarker.class, scope = "void LIRPhase.apply(jdk.vm.ci.code.TargetDescription, org.graalvm.compiler.lir.gen.LIRGenerationResult, *, boolean)", order = 0)
+    public static void beforeLIRPhaseRun(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(TimelineCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(TimelineCollector.SLOT).prePhase(di.getThis().getClass(), start);
+            context.recordHookTime(TimelineCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+
+    @After(marker = BodyMarker.class, scope = "void LIRPhase.apply(jdk.vm.ci.code.TargetDescription, org.graalvm.compiler.lir.gen.LIRGenerationResult, *, boolean)", order = 0)
+    public static void afterLIRPhaseRun(DynamicContext di) {
+        DumpMap context = Manager.getContext();
+        if (context != null && context.isEnabled(TimelineCollector.SLOT)) {
+            long start = System.nanoTime();
+
+            context.get(TimelineCollector.SLOT).postPhase(start);
+            context.recordHookTime(TimelineCollector.SLOT, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import cz.cuni.mff.d3s.blood.report.format.BinaryDumpReader;
+import cz.cuni.mff.d3s.blood.report.format.BinaryDumpWriter;
+
+import java.io.IOException;
+
+/**
+ * Dump that can also encode itself in the binary dump format. The layout of
+ * the data written after the header is up to the dump, but it should be
+ * composed of the primitives of {@link BinaryDumpWriter} so that it can be
+ * decoded with the matching methods of {@link BinaryDumpReader}.
+ */
+public interface BinaryDump extends Dump {
+
+    void writeBinary(BinaryDumpWriter out) throws IOException;
+}
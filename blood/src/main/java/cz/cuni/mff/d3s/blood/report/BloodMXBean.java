@@ -0,0 +1,115 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import java.util.Map;
+
+/**
+ * Live view of the collection, registered in the platform MBean server as
+ * {@code cz.cuni.mff.d3s.blood:type=Manager}. Can be watched with
+ * {@code jconsole} while the workload runs.
+ */
+public interface BloodMXBean {
+
+    long getCompilationsObserved();
+
+    long getCompilationsSampled();
+
+    long getCompilationsDumped();
+
+    long getCompilationsDropped();
+
+    long getCompilationsSummarized();
+
+    int getQueueDepth();
+
+    int getQueueCapacity();
+
+    long getRawBytes();
+
+    long getBytesWritten();
+
+    long getAverageSerializationNanos();
+
+    long getAverageCompressionNanos();
+
+    long getAverageEncodingWaitNanos();
+
+    long getAverageWriteNanos();
+
+    /**
+     * @return total time spent in hooks of each collector, by dump name
+     */
+    Map<String, Long> getHookNanos();
+
+    /**
+     * @return rolling average of hook time relative to the rest of the
+     * compilation time
+     */
+    double getAverageOverhead();
+
+    /**
+     * @return disabled and throttled collectors, see
+     * {@link OverheadController#getThrottled()}
+     */
+    Map<String, Long> getThrottledCollectors();
+
+    /**
+     * @return compilations pushed out of the ring without being dumped, 0
+     * when the ring buffer mode is disabled
+     */
+    long getRingDiscarded();
+
+    /**
+     * @return number of times the ring was dumped
+     */
+    long getRingTriggers();
+
+    /**
+     * Dumps all compilations kept in the ring.
+     *
+     * @return number of compilations queued for dumping
+     */
+    int dumpRing();
+
+    /**
+     * @return methods with the highest estimated total compile time in
+     * nanoseconds, see {@link HeavyHitters}
+     */
+    Map<String, Long> getTopMethodsByTime();
+
+    /**
+     * @return phase class paths with the highest estimated total wall time in
+     * nanoseconds
+     */
+    Map<String, Long> getTopPhasesByTime();
+
+    /**
+     * @return phase class paths with the highest estimated total number of
+     * nodes at their exit
+     */
+    Map<String, Long> getTopPhasesByNodes();
+
+    /**
+     * Writes the top-K summaries to the run directory now.
+     */
+    void writeTopK();
+
+    /**
+     * Waits until all compilations queued so far are written out.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return true when everything was written in time
+     */
+    boolean flush(long timeoutMillis);
+
+    /**
+     * @param name dump name of the collector, for example {@code depmat}
+     */
+    void enableCollector(String name);
+
+    /**
+     * @param name dump name of the collector, for example {@code depmat}
+     * @throws IllegalArgumentException when other collectors depend on it,
+     *                                  such as {@code phasestack}
+     */
+    void disableCollector(String name);
+}
@@ -0,0 +1,169 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Implementation of {@link BloodMXBean} on top of {@link Manager}.
+ */
+final class BloodMonitor implements BloodMXBean {
+
+    static final String OBJECT_NAME = "cz.cuni.mff.d3s.blood:type=Manager";
+
+    /**
+     * Registers the bean, unless disabled by the {@code blood.jmx} system
+     * property. Failures are only logged, collection works without it.
+     */
+    static void register() {
+        if (!Boolean.parseBoolean(System.getProperty("blood.jmx", "true"))) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new BloodMonitor(), new ObjectName(OBJECT_NAME));
+        } catch (JMException | RuntimeException ex) {
+            Logger.getLogger(BloodMonitor.class.getName()).log(Level.WARNING, "Could not register " + OBJECT_NAME, ex);
+        }
+    }
+
+    @Override
+    public long getCompilationsObserved() {
+        return Manager.getSampler().getObserved();
+    }
+
+    @Override
+    public long getCompilationsSampled() {
+        return Manager.getSampler().getSampled();
+    }
+
+    @Override
+    public long getCompilationsDumped() {
+        return Manager.getStatistics().getWritten();
+    }
+
+    @Override
+    public long getCompilationsDropped() {
+        return Manager.getStatistics().getDropped();
+    }
+
+    @Override
+    public long getCompilationsSummarized() {
+        return Manager.getStatistics().getSummarized();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return Manager.getStatistics().getQueueDepth();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return Manager.getStatistics().getQueueCapacity();
+    }
+
+    @Override
+    public long getRawBytes() {
+        return Manager.getStatistics().getRawBytes();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return Manager.getStatistics().getBytesWritten();
+    }
+
+    @Override
+    public long getAverageSerializationNanos() {
+        return Manager.getStatistics().getAverageSerializationNanos();
+    }
+
+    @Override
+    public long getAverageCompressionNanos() {
+        return Manager.getStatistics().getAverageCompressionNanos();
+    }
+
+    @Override
+    public long getAverageEncodingWaitNanos() {
+        return Manager.getStatistics().getAverageEncodingWaitNanos();
+    }
+
+    @Override
+    public long getAverageWriteNanos() {
+        return Manager.getStatistics().getAverageWriteNanos();
+    }
+
+    @Override
+    public Map<String, Long> getHookNanos() {
+        return Manager.getOverheadController().getHookNanos();
+    }
+
+    @Override
+    public double getAverageOverhead() {
+        return Manager.getOverheadController().getAverageOverhead();
+    }
+
+    @Override
+    public Map<String, Long> getThrottledCollectors() {
+        return Manager.getOverheadController().getThrottled();
+    }
+
+    @Override
+    public long getRingDiscarded() {
+        DumpRing ring = Manager.getRing();
+        return ring != null ? ring.getDiscarded() : 0;
+    }
+
+    @Override
+    public long getRingTriggers() {
+        DumpRing ring = Manager.getRing();
+        return ring != null ? ring.getTriggers() : 0;
+    }
+
+    @Override
+    public int dumpRing() {
+        return Manager.dumpRing("JMX request");
+    }
+
+    @Override
+    public Map<String, Long> getTopMethodsByTime() {
+        HeavyHitters heavyHitters = Manager.getHeavyHitters();
+        return heavyHitters != null ? heavyHitters.getTopMethodsByTime() : Map.of();
+    }
+
+    @Override
+    public Map<String, Long> getTopPhasesByTime() {
+        HeavyHitters heavyHitters = Manager.getHeavyHitters();
+        return heavyHitters != null ? heavyHitters.getTopPhasesByTime() : Map.of();
+    }
+
+    @Override
+    public Map<String, Long> getTopPhasesByNodes() {
+        HeavyHitters heavyHitters = Manager.getHeavyHitters();
+        return heavyHitters != null ? heavyHitters.getTopPhasesByNodes() : Map.of();
+    }
+
+    @Override
+    public void writeTopK() {
+        HeavyHitters heavyHitters = Manager.getHeavyHitters();
+        if (heavyHitters != null) {
+            heavyHitters.write();
+        }
+    }
+
+    @Override
+    public boolean flush(long timeoutMillis) {
+        return Manager.flush(timeoutMillis);
+    }
+
+    @Override
+    public void enableCollector(String name) {
+        Manager.getOverheadController().enable(name);
+    }
+
+    @Override
+    public void disableCollector(String name) {
+        Manager.getOverheadController().disable(name);
+    }
+}
@@ -0,0 +1,125 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import cz.cuni.mff.d3s.blood.utils.Options;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+/**
+ * Decides which compilations are collected. Configured by system properties:
+ * <ul>
+ * <li>{@code blood.sample.include} - semicolon-separated regular expressions,
+ * only methods whose signature contains a match are collected</li>
+ * <li>{@code blood.sample.exclude} - semicolon-separated regular expressions,
+ * methods whose signature contains a match are never collected</li>
+ * <li>{@code blood.sample.every} - collect only every N-th of the remaining
+ * compilations</li>
+ * <li>{@code blood.sample.rate} - collect only a random fraction of the
+ * remaining compilations</li>
+ * </ul>
+ * By default, everything is collected. A rate outside of [0, 1] is clamped. The expressions are separated by
+ * semicolons, because commas separate parameters in signatures. Invalid
+ * expressions are reported and ignored.
+ */
+public final class CompilationSampler {
+
+    private final List<Pattern> include;
+    private final List<Pattern> exclude;
+    private final long every;
+    private final double rate;
+
+    private final AtomicLong observed = new AtomicLong();
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong sampled = new AtomicLong();
+
+    public CompilationSampler(List<Pattern> include, List<Pattern> exclude, long every, double rate) {
+        this.include = include;
+        this.exclude = exclude;
+        this.every = Math.max(every, 1);
+        this.rate = rate;
+    }
+
+    public static CompilationSampler fromProperties() {
+        return new CompilationSampler(
+                patterns(System.getProperty("blood.sample.include", "")),
+                patterns(System.getProperty("blood.sample.exclude", "")),
+                Long.getLong("blood.sample.every", 1),
+                rate());
+    }
+
+    private static double rate() {
+        double rate = Options.getDouble("blood.sample.rate", 1);
+        if (rate < 0 || rate > 1) {
+            double clamped = Math.min(Math.max(rate, 0), 1);
+            Options.warn("blood.sample.rate", rate, "a fraction between 0 and 1", clamped);
+            return clamped;
+        }
+        return rate;
+    }
+
+    private static List<Pattern> patterns(String list) {
+        return Arrays.stream(list.split(";"))
+                .map(String::strip)
+                .filter(pattern -> !pattern.isEmpty())
+                .map(CompilationSampler::compile)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toUnmodifiableList());
+    }
+
+    private static Pattern compile(String pattern) {
+        try {
+            return Pattern.compile(pattern);
+        } catch (PatternSyntaxException ex) {
+            Logger.getLogger(CompilationSampler.class.getName()).log(Level.WARNING, "Ignoring invalid sampling pattern", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Called once at the start of every compilation.
+     *
+     * @param methodSignature signature of the compiled method
+     * @return true when the compilation should be collected
+     */
+    public boolean shouldSample(String methodSignature) {
+        observed.incrementAndGet();
+
+        if (!include.isEmpty() && include.stream().noneMatch(p -> p.matcher(methodSignature).find())) {
+            return false;
+        }
+        if (exclude.stream().anyMatch(p -> p.matcher(methodSignature).find())) {
+            return false;
+        }
+        if (every > 1 && matched.getAndIncrement() % every != 0) {
+            return false;
+        }
+        if (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate) {
+            return false;
+        }
+
+        sampled.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return number of compilations seen
+     */
+    public long getObserved() {
+        return observed.get();
+    }
+
+    /**
+     * @return number of compilations selected for collection
+     */
+    public long getSampled() {
+        return sampled.get();
+    }
+}
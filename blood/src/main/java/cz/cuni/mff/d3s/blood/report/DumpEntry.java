@@ -0,0 +1,21 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import cz.cuni.mff.d3s.blood.report.format.DumpSink;
+
+/**
+ * One encoded dump entry, ready to be handed to a {@link DumpSink}.
+ */
+final class DumpEntry {
+
+    final String id;
+    final String dumpType;
+    final byte[] data;
+    final boolean compressed;
+
+    DumpEntry(String id, String dumpType, byte[] data, boolean compressed) {
+        this.id = id;
+        this.dumpType = dumpType;
+        this.data = data;
+        this.compressed = compressed;
+    }
+}
@@ -0,0 +1,30 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import cz.cuni.mff.d3s.blood.utils.Options;
+
+/**
+ * Encoding of the dump entries produced by collectors. Selected by the
+ * {@code blood.dumpformat} system property ({@code text} or {@code binary}).
+ */
+public enum DumpFormat {
+    /**
+     * Plain UTF-8 text as produced by {@link TextDump#getText()}.
+     */
+    TEXT,
+    /**
+     * Compact encoding produced by {@link BinaryDump#writeBinary}. Only used
+     * for dumps implementing {@link BinaryDump}, everything else stays text.
+     */
+    BINARY;
+
+    /**
+     * File suffix of binary entries, added to the dump type.
+     */
+    public static final String BINARY_SUFFIX = ".bin";
+
+    private static final DumpFormat CURRENT = Options.getEnum("blood.dumpformat", TEXT);
+
+    public static DumpFormat current() {
+        return CURRENT;
+    }
+}
@@ -1,57 +1,295 @@
 package cz.cuni.mff.d3s.blood.report;
 
+import cz.cuni.mff.d3s.blood.report.format.BinaryDumpWriter;
+import cz.cuni.mff.d3s.blood.report.format.Compressor;
+import cz.cuni.mff.d3s.blood.report.format.StringTable;
+import cz.cuni.mff.d3s.blood.report.jfr.JfrRecorder;
 import cz.cuni.mff.d3s.blood.utils.Miscellaneous;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public final class DumpMap {
 
-    private final HashMap<Class<? extends Dump>, Dump> map = new HashMap<>();
+    /**
+     * Dictionary shared by all binary dumps of this run.
+     */
+    private static final StringTable strings = new StringTable();
+    /**
+     * Hooks called on every graph event time only one event in this many,
+     * timing them all would cost more than the hooks themselves. Power of
+     * two.
+     */
+    private static final int EVENT_TIMING_PERIOD = 64;
 
+    /**
+     * Collectors of this compilation, indexed by {@link Slot#getIndex()},
+     * created on first use.
+     */
+    private Dump[] dumps = new Dump[Slot.count()];
+    /**
+     * Names of collectors that must not collect in this compilation.
+     */
+    private final Set<String> disabled;
+    /**
+     * Whether the collector is disabled, indexed by {@link Slot#getIndex()},
+     * so that hooks do not hash names. Null when nothing is disabled.
+     */
+    private final boolean[] disabledSlots;
+    private long[] hookNanos = new long[Slot.count()];
+    private int[] eventCounts = new int[Slot.count()];
+    private final GraphScanner scanner = new GraphScanner(this);
+    /**
+     * Created only when JFR events are enabled.
+     */
+    private JfrRecorder jfrRecorder = null;
+
+    public DumpMap() {
+        this(Collections.emptySet());
+    }
+
+    public DumpMap(Set<String> disabled) {
+        this.disabled = disabled;
+        if (disabled.isEmpty()) {
+            disabledSlots = null;
+        } else {
+            disabledSlots = new boolean[Slot.count()];
+            for (int i = 0; i < disabledSlots.length; i++) {
+                disabledSlots[i] = disabled.contains(Slot.get(i).getName());
+            }
+        }
+    }
+
+    /**
+     * Must only be called when {@link #isEnabled(Slot)} is true.
+     *
+     * @param slot slot of the collector
+     * @return collector of this compilation
+     */
     @SuppressWarnings("unchecked")
-    public final <T extends Dump> T get(Class<T> clazz) {
-        return (T) map.computeIfAbsent(clazz, Dump::instantiate);
+    public <T extends Dump> T get(Slot<T> slot) {
+        int index = slot.getIndex();
+        if (index < dumps.length && dumps[index] != null) {
+            return (T) dumps[index];
+        }
+
+        // the factory may ask for other collectors, so the array is read again afterwards
+        T dump = slot.create(this);
+        if (index >= dumps.length) {
+            dumps = Arrays.copyOf(dumps, Slot.count());
+        }
+        dumps[index] = dump;
+        return dump;
+    }
+
+    /**
+     * Instrumentation of a collector should check this before doing any work.
+     *
+     * @param slot slot of the collector
+     * @return true when the collector collects in this compilation
+     */
+    public boolean isEnabled(Slot<?> slot) {
+        if (disabledSlots == null) {
+            return true;
+        }
+        int index = slot.getIndex();
+        // slots registered after this compilation started are looked up by name
+        return index < disabledSlots.length ? !disabledSlots[index] : !disabled.contains(slot.getName());
+    }
+
+    /**
+     * Must only be called when {@link Manager#isJfrEnabled()} is true.
+     *
+     * @return JFR events of this compilation
+     */
+    public JfrRecorder getJfrRecorder() {
+        if (jfrRecorder == null) {
+            jfrRecorder = new JfrRecorder();
+        }
+        return jfrRecorder;
+    }
+
+    final GraphScanner getScanner() {
+        return scanner;
+    }
+
+    /**
+     * Accounts time spent in a hook of a collector to this compilation.
+     *
+     * @param slot  slot of the collector
+     * @param nanos time spent in the hook
+     */
+    public void recordHookTime(Slot<?> slot, long nanos) {
+        int index = slot.getIndex();
+        if (index >= hookNanos.length) {
+            hookNanos = Arrays.copyOf(hookNanos, Slot.count());
+        }
+        hookNanos[index] += nanos;
+    }
+
+    /**
+     * Hooks called on every graph event (node added, input changed, ...)
+     * should time themselves and call {@link #recordEventHookTime} only when
+     * this returns true.
+     *
+     * @param slot slot of the collector
+     * @return true once in {@value #EVENT_TIMING_PERIOD} calls
+     */
+    public boolean shouldTimeEvent(Slot<?> slot) {
+        int index = slot.getIndex();
+        if (index >= eventCounts.length) {
+            eventCounts = Arrays.copyOf(eventCounts, Slot.count());
+        }
+        return (++eventCounts[index] & (EVENT_TIMING_PERIOD - 1)) == 0;
     }
-    
-    public final void dump(File reportDir, Manager.DumpConfig dumpConfig, long compilationIndex) {
+
+    /**
+     * Accounts time of one timed event of a collector, standing for all the
+     * events since the previous timed one.
+     *
+     * @param slot  slot of the collector
+     * @param nanos time spent in the hook
+     */
+    public void recordEventHookTime(Slot<?> slot, long nanos) {
+        recordHookTime(slot, nanos * EVENT_TIMING_PERIOD);
+    }
+
+    /**
+     * @return time spent in hooks of each collector, by dump name
+     */
+    final Map<String, Long> getHookNanos() {
+        var byName = new HashMap<String, Long>();
+        for (int i = 0; i < hookNanos.length; i++) {
+            if (hookNanos[i] != 0) {
+                byName.merge(Slot.get(i).getName(), hookNanos[i], Long::sum);
+            }
+        }
+        return byName;
+    }
+
+    /**
+     * Adds collectors of this compilation to the aggregate of the run. Must
+     * be called on the compiler thread, once the compilation is finished.
+     *
+     * @param aggregate the aggregate of the run
+     */
+    final void contributeTo(RunAggregate aggregate) {
+        for (Dump dump : dumps) {
+            if (dump instanceof RunAggregate.Contributor) {
+                ((RunAggregate.Contributor) dump).contributeTo(aggregate);
+            }
+        }
+    }
+
+    /**
+     * Adds collectors of this compilation to the top-K summaries of the run.
+     * Must be called on the compiler thread, once the compilation is
+     * finished.
+     *
+     * @param heavyHitters the summaries of the run
+     */
+    final void contributeTo(HeavyHitters heavyHitters) {
+        for (Dump dump : dumps) {
+            if (dump instanceof HeavyHitters.Contributor) {
+                ((HeavyHitters.Contributor) dump).contributeTo(heavyHitters);
+            }
+        }
+    }
+
+    /**
+     * Serializes and compresses all entries of a finished compilation. May be
+     * called from any thread, but only once the compilation is finished.
+     *
+     * @param dumpConfig       the compilation
+     * @param compilationIndex index of the compilation in this run
+     * @param statistics       receives serialization and compression times
+     * @return encoded entries, including {@code request} and {@code timing}
+     */
+    final List<DumpEntry> encode(Manager.DumpConfig dumpConfig, long compilationIndex, DumpStatistics statistics) {
         String hash = Miscellaneous.shortTextHash(dumpConfig.getCompilationUnitInfo(compilationIndex));
+        var entries = new ArrayList<DumpEntry>(dumps.length + 2);
 
-        dumpCompilationRequestId(reportDir, dumpConfig.getCompilationUnitInfo(compilationIndex), hash);
-        dumpTimingInformation(reportDir, dumpConfig.getCompilationStart(), dumpConfig.getCompilationDuration(), hash);
+        long serializationStart = System.nanoTime();
+        var types = new ArrayList<String>(dumps.length + 2);
+        var datas = new ArrayList<byte[]>(dumps.length + 2);
 
-        for (Dump dump : map.values()) {
+        types.add("request");
+        datas.add(dumpConfig.getCompilationUnitInfo(compilationIndex).getBytes(StandardCharsets.UTF_8));
+        types.add("timing");
+        datas.add(timingInformation(dumpConfig.getCompilationStart(), dumpConfig.getCompilationDuration()));
+
+        for (Dump dump : dumps) {
+            if (dump == null) {
+                continue;
+            }
+            if (RunAggregate.MODE == RunAggregate.Mode.ONLY && dump instanceof RunAggregate.Contributor) {
+                // it's in the aggregate
+                continue;
+            }
             String name = dump.getName();
-            byte[] data = dump.getData();
-            try (var fos = DumpHelpers.createDumpFile(reportDir, name, hash)) {
-                fos.write(data);
-            } catch (IOException ex) {
-                Logger.getLogger(DumpMap.class.getName()).log(Level.WARNING, name, ex);
+            if (DumpFormat.current() == DumpFormat.BINARY && dump instanceof BinaryDump) {
+                BinaryDumpWriter writer = new BinaryDumpWriter(strings, name);
+                try {
+                    ((BinaryDump) dump).writeBinary(writer);
+                } catch (IOException ex) {
+                    Logger.getLogger(DumpMap.class.getName()).log(Level.WARNING, name, ex);
+                    continue;
+                }
+                types.add(name + DumpFormat.BINARY_SUFFIX);
+                datas.add(writer.toByteArray());
+            } else {
+                types.add(name);
+                datas.add(dump.getData());
             }
         }
-    }
 
-    private void dumpCompilationRequestId(File reportDir, String compilationRequestId, String id) {
-        try (var fos = DumpHelpers.createDumpFile(reportDir, "request", id)) {
-            fos.write(compilationRequestId.getBytes(StandardCharsets.UTF_8));
-        } catch (IOException e) {
-            e.printStackTrace();
+        long compressionStart = System.nanoTime();
+        long rawBytes = 0;
+        for (int i = 0; i < types.size(); i++) {
+            byte[] data = datas.get(i);
+            rawBytes += data.length;
+            if (Compressor.isEnabled()) {
+                entries.add(new DumpEntry(hash, types.get(i), Compressor.gzip(data), true));
+            } else {
+                entries.add(new DumpEntry(hash, types.get(i), data, false));
+            }
         }
+
+        statistics.recordEncoding(compressionStart - serializationStart, System.nanoTime() - compressionStart, rawBytes);
+        return entries;
     }
 
-    private static void dumpTimingInformation(File reportDir, Instant compilationStart, Duration compilationDuration, String id) {
-        try (var fos = DumpHelpers.createDumpFile(reportDir, "timing", id)) {
-            fos.write((compilationStart.toString() + "\n" + compilationDuration.toNanos()/1000 + "\n").getBytes(StandardCharsets.UTF_8));
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Appends strings used by binary dumps encoded so far to the string table
+     * file. Must be called before the entries are written, so that readers
+     * never see an entry referring to an unknown string.
+     *
+     * @param reportDir directory of the current run
+     */
+    static void writeStringTable(File reportDir) {
+        if (DumpFormat.current() != DumpFormat.BINARY) {
+            return;
         }
+        try {
+            strings.appendTo(new File(reportDir, StringTable.FILE_NAME));
+        } catch (IOException ex) {
+            Logger.getLogger(DumpMap.class.getName()).log(Level.WARNING, StringTable.FILE_NAME, ex);
+        }
+    }
+
+    private static byte[] timingInformation(Instant compilationStart, Duration compilationDuration) {
+        return (compilationStart.toString() + "\n" + compilationDuration.toNanos()/1000 + "\n").getBytes(StandardCharsets.UTF_8);
     }
 }
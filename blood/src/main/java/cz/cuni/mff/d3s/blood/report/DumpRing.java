@@ -0,0 +1,120 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import cz.cuni.mff.d3s.blood.utils.Options;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last finished compilations in memory instead of dumping them. They
+ * are dumped only when a trigger fires - a compilation takes too long, its
+ * graph is too large, it bails out, or a dump is requested over JMX.
+ * Compilations pushed out of the ring are discarded. Every trigger is
+ * recorded in {@code ring.log} in the run directory.
+ * <p>
+ * Configured by system properties {@code blood.ring} (number of kept
+ * compilations, the ring is off by default), {@code blood.ring.duration}
+ * (milliseconds), {@code blood.ring.nodes} (number of graph nodes at the end
+ * of the compilation) and {@code blood.ring.bailout} ({@code true} by
+ * default).
+ */
+public final class DumpRing {
+
+    public static final String LOG_FILE_NAME = "ring.log";
+    public static final int CAPACITY = Integer.getInteger("blood.ring", 0);
+
+    // saturates, so no limit stays Long.MAX_VALUE
+    private static final long DURATION_NANOS = TimeUnit.MILLISECONDS.toNanos(Options.getLong("blood.ring.duration", Long.MAX_VALUE));
+    private static final int GRAPH_NODES = Integer.getInteger("blood.ring.nodes", Integer.MAX_VALUE);
+    private static final boolean ON_BAILOUT = Boolean.parseBoolean(System.getProperty("blood.ring.bailout", "true"));
+
+    private final Manager.DumpConfig[] ring = new Manager.DumpConfig[CAPACITY];
+    /**
+     * Index of the oldest compilation.
+     */
+    private int first = 0;
+    private int size = 0;
+
+    private long discarded = 0;
+    private long triggers = 0;
+
+    /**
+     * @param duration  duration of the compilation
+     * @param graphSize number of nodes of the graph at the end of the
+     *                  compilation
+     * @param bailout   whether the compilation bailed out
+     * @return reason to dump the ring, or null when the compilation is not
+     * interesting
+     */
+    static String triggerOf(Duration duration, int graphSize, boolean bailout) {
+        if (bailout && ON_BAILOUT) {
+            return "bailout";
+        }
+        if (duration.toNanos() > DURATION_NANOS) {
+            return "duration " + duration.toMillis() + " ms";
+        }
+        if (graphSize > GRAPH_NODES) {
+            return "graph size " + graphSize;
+        }
+        return null;
+    }
+
+    /**
+     * Adds a finished compilation. Called on the compiler thread.
+     *
+     * @param dumpConfig the compilation
+     * @param trigger    reason to dump the ring, or null
+     * @return compilations to dump, oldest first; empty unless triggered
+     */
+    synchronized List<Manager.DumpConfig> add(Manager.DumpConfig dumpConfig, String trigger) {
+        if (size == CAPACITY) {
+            first = (first + 1) % CAPACITY;
+            size--;
+            discarded++;
+        }
+        ring[(first + size) % CAPACITY] = dumpConfig;
+        size++;
+
+        return trigger == null ? Collections.emptyList() : drain(trigger + " in " + dumpConfig.getCompilationRequestId());
+    }
+
+    /**
+     * Empties the ring.
+     *
+     * @param reason recorded in the log
+     * @return compilations to dump, oldest first
+     */
+    synchronized List<Manager.DumpConfig> drain(String reason) {
+        var drained = new ArrayList<Manager.DumpConfig>(size);
+        for (int i = 0; i < size; i++) {
+            int index = (first + i) % CAPACITY;
+            drained.add(ring[index]);
+            ring[index] = null;
+        }
+        first = 0;
+        size = 0;
+        triggers++;
+
+        Manager.appendRunFile(LOG_FILE_NAME, String.format("%s %s: dumping %d compilations%n", Instant.now(), reason, drained.size()));
+        return drained;
+    }
+
+    /**
+     * @return number of compilations pushed out of the ring without being
+     * dumped
+     */
+    public synchronized long getDiscarded() {
+        return discarded;
+    }
+
+    /**
+     * @return number of times the ring was dumped
+     */
+    public synchronized long getTriggers() {
+        return triggers;
+    }
+}
@@ -0,0 +1,202 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters describing the health of the dump pipeline - how many
+ * compilations were queued, dropped or summarized and how long encoding and
+ * writing them took. Safe to read from any thread at any time.
+ */
+public final class DumpStatistics {
+
+    private final IntSupplier queueDepth;
+    private final int queueCapacity;
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder summarized = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong encodingWaitNanos = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+    private final AtomicLong maxBatchWriteNanos = new AtomicLong();
+    private final LongAdder serializationNanos = new LongAdder();
+    private final LongAdder compressionNanos = new LongAdder();
+    private final LongAdder encoded = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    DumpStatistics(IntSupplier queueDepth, int queueCapacity) {
+        this.queueDepth = queueDepth;
+        this.queueCapacity = queueCapacity;
+    }
+
+    void recordQueued() {
+        queued.increment();
+    }
+
+    void recordDropped() {
+        dropped.increment();
+    }
+
+    void recordSummarized() {
+        summarized.increment();
+    }
+
+    void recordBlocked(long nanos) {
+        blockedNanos.add(nanos);
+    }
+
+    void recordEncoding(long serialization, long compression, long bytes) {
+        serializationNanos.add(serialization);
+        compressionNanos.add(compression);
+        rawBytes.add(bytes);
+        encoded.increment();
+    }
+
+    void recordBytesWritten(long bytes) {
+        bytesWritten.addAndGet(bytes);
+    }
+
+    /**
+     * @param compilations number of compilations in the batch
+     * @param encoding     time the IO thread waited for the encoder pool
+     * @param writing      time spent writing the encoded batch to the sink
+     */
+    void recordBatch(int compilations, long encoding, long writing) {
+        written.addAndGet(compilations);
+        batches.incrementAndGet();
+        encodingWaitNanos.addAndGet(encoding);
+        writeNanos.addAndGet(writing);
+        maxBatchWriteNanos.accumulateAndGet(writing, Math::max);
+    }
+
+    /**
+     * @return number of compilations waiting in the queue
+     */
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @return number of compilations accepted into the queue with full data
+     */
+    public long getQueued() {
+        return queued.sum();
+    }
+
+    /**
+     * @return number of compilations thrown away because the queue was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return number of compilations reduced to request and timing entries
+     * because the queue was full
+     */
+    public long getSummarized() {
+        return summarized.sum();
+    }
+
+    /**
+     * @return total time compiler threads spent waiting for space in the queue
+     */
+    public long getBlockedNanos() {
+        return blockedNanos.sum();
+    }
+
+    /**
+     * @return number of compilations written out, including summaries
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getWriteNanos() {
+        return writeNanos.get();
+    }
+
+    public long getMaxBatchWriteNanos() {
+        return maxBatchWriteNanos.get();
+    }
+
+    /**
+     * @return average time the IO thread waited for one compilation to be
+     * encoded; serialization and compression run in parallel, so this is
+     * usually less than their sum
+     */
+    public long getAverageEncodingWaitNanos() {
+        long count = written.get();
+        return count == 0 ? 0 : encodingWaitNanos.get() / count;
+    }
+
+    /**
+     * @return average time needed to write out one encoded compilation,
+     * without encoding it
+     */
+    public long getAverageWriteNanos() {
+        long count = written.get();
+        return count == 0 ? 0 : writeNanos.get() / count;
+    }
+
+    /**
+     * @return average time needed to serialize the entries of one compilation
+     */
+    public long getAverageSerializationNanos() {
+        long count = encoded.sum();
+        return count == 0 ? 0 : serializationNanos.sum() / count;
+    }
+
+    /**
+     * @return average time needed to compress the entries of one compilation
+     */
+    public long getAverageCompressionNanos() {
+        long count = encoded.sum();
+        return count == 0 ? 0 : compressionNanos.sum() / count;
+    }
+
+    /**
+     * @return size of all serialized entries before compression
+     */
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    /**
+     * @return size of all entries handed to the sink
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    @Override
+    public String toString() {
+        return "queue depth: " + getQueueDepth() + "/" + getQueueCapacity() + "\n"
+                + "queued: " + getQueued() + "\n"
+                + "dropped: " + getDropped() + "\n"
+                + "summarized: " + getSummarized() + "\n"
+                + "blocked (us): " + getBlockedNanos() / 1000 + "\n"
+                + "written: " + getWritten() + "\n"
+                + "batches: " + getBatches() + "\n"
+                + "average serialization (us): " + getAverageSerializationNanos() / 1000 + "\n"
+                + "average compression (us): " + getAverageCompressionNanos() / 1000 + "\n"
+                + "raw bytes: " + getRawBytes() + "\n"
+                + "bytes written: " + getBytesWritten() + "\n"
+                + "average encoding wait (us): " + getAverageEncodingWaitNanos() / 1000 + "\n"
+                + "average write (us): " + getAverageWriteNanos() / 1000 + "\n"
+                + "max batch write (us): " + getMaxBatchWriteNanos() / 1000 + "\n";
+    }
+}
@@ -0,0 +1,44 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import cz.cuni.mff.d3s.blood.utils.Options;
+
+/**
+ * Where collected data go, selected by the {@code blood.sink} system
+ * property.
+ */
+public enum DumpTarget {
+    /**
+     * Dump files in the run directory (default).
+     */
+    FILE(true, false),
+    /**
+     * JDK Flight Recorder events only.
+     */
+    JFR(false, true),
+    /**
+     * Both dump files and JDK Flight Recorder events.
+     */
+    BOTH(true, true);
+
+    private static final DumpTarget CURRENT = Options.getEnum("blood.sink", FILE);
+
+    private final boolean files;
+    private final boolean events;
+
+    DumpTarget(boolean files, boolean events) {
+        this.files = files;
+        this.events = events;
+    }
+
+    public static DumpTarget current() {
+        return CURRENT;
+    }
+
+    public boolean writesFiles() {
+        return files;
+    }
+
+    public boolean emitsEvents() {
+        return events;
+    }
+}
@@ -0,0 +1,157 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import cz.cuni.mff.d3s.blood.tools.phasestack.PhaseID;
+import cz.cuni.mff.d3s.blood.tools.phasestack.PhaseStackCollector;
+import org.graalvm.compiler.graph.Node;
+import org.graalvm.compiler.nodes.StructuredGraph;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Walks a graph once per phase boundary on behalf of all collectors that need
+ * to see its nodes there.
+ * <p>
+ * The instrumentation of every such collector calls
+ * {@link #scan(DumpMap, StructuredGraph, boolean, Slot)} at the boundary. The first
+ * call walks the graph and hands each node to all known consumers of the
+ * current compilation, the other calls at the same boundary find their
+ * consumer already served and return. A consumer becomes known the first time
+ * its instrumentation calls in, so the order in which the hooks run does not
+ * matter.
+ * <p>
+ * One instance exists per compilation, it's confined to the compiler thread.
+ */
+public final class GraphScanner {
+
+    /**
+     * Collector fed by the scanner. Every boundary is delivered as one
+     * {@link #beginScan} call, optional {@link #visit} calls for all nodes of
+     * the graph and one {@link #endScan} call.
+     */
+    public interface Consumer extends Dump {
+
+        /**
+         * @param graph the graph at the boundary
+         * @param entry true when the phase is about to run, false when it
+         *              has just finished
+         * @return true when the consumer wants to visit the nodes this time
+         */
+        boolean beginScan(StructuredGraph graph, boolean entry);
+
+        void visit(Node node);
+
+        void endScan(StructuredGraph graph, boolean entry);
+    }
+
+    /**
+     * A bit in {@link #served} is used per consumer, by its slot index.
+     */
+    private static final int MAX_SLOTS = Long.SIZE;
+
+    private static final CopyOnWriteArrayList<Slot<? extends Consumer>> consumers = new CopyOnWriteArrayList<>();
+    /**
+     * Bitset of slot indices in {@link #consumers}.
+     */
+    private static volatile long known;
+
+    private final DumpMap dumpMap;
+    private PhaseStackCollector phaseStack;
+
+    private StructuredGraph boundaryGraph;
+    private PhaseID boundaryPhase;
+    private boolean boundaryEntry;
+    /**
+     * Bitset of slot indices of consumers that were given the current
+     * boundary.
+     */
+    private long served;
+
+    private final Slot<?>[] activeSlots = new Slot<?>[MAX_SLOTS];
+    private final Consumer[] active = new Consumer[MAX_SLOTS];
+    private final Consumer[] visitors = new Consumer[MAX_SLOTS];
+
+    GraphScanner(DumpMap dumpMap) {
+        this.dumpMap = dumpMap;
+    }
+
+    private static synchronized void register(Slot<? extends Consumer> slot) {
+        if (slot.getIndex() >= MAX_SLOTS) {
+            throw new IllegalStateException("graph scan consumer slot out of range: " + slot);
+        }
+        if ((known & (1L << slot.getIndex())) == 0) {
+            consumers.add(slot);
+            known |= 1L << slot.getIndex();
+        }
+    }
+
+    /**
+     * Makes sure the consumer gets the current phase boundary. Must only be
+     * called when the consumer is enabled in the context. Time spent in the
+     * scan is accounted to the served consumers as hook time.
+     *
+     * @param context  collectors of the current compilation
+     * @param graph    the graph at the boundary
+     * @param entry    true before the phase runs, false after it
+     * @param consumer slot of the calling collector
+     */
+    public static void scan(DumpMap context, StructuredGraph graph, boolean entry, Slot<? extends Consumer> consumer) {
+        long bit = 1L << consumer.getIndex();
+        if ((known & bit) == 0) {
+            register(consumer);
+        }
+        context.getScanner().scanBoundary(graph, entry, bit);
+    }
+
+    private void scanBoundary(StructuredGraph graph, boolean entry, long callerBit) {
+        if (phaseStack == null) {
+            phaseStack = dumpMap.get(PhaseStackCollector.SLOT);
+        }
+        PhaseID phase = phaseStack.getCurrentPhaseID();
+        if (graph != boundaryGraph || phase != boundaryPhase || entry != boundaryEntry) {
+            boundaryGraph = graph;
+            boundaryPhase = phase;
+            boundaryEntry = entry;
+            served = 0;
+        }
+        if ((served & callerBit) != 0) {
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        int activeCount = 0;
+        for (Slot<? extends Consumer> slot : consumers) {
+            long bit = 1L << slot.getIndex();
+            if ((served & bit) == 0 && dumpMap.isEnabled(slot)) {
+                served |= bit;
+                activeSlots[activeCount] = slot;
+                active[activeCount++] = dumpMap.get(slot);
+            }
+        }
+
+        int visitorCount = 0;
+        for (int i = 0; i < activeCount; i++) {
+            if (active[i].beginScan(graph, entry)) {
+                visitors[visitorCount++] = active[i];
+            }
+        }
+
+        if (visitorCount > 0) {
+            for (Node node : graph.getNodes()) {
+                for (int i = 0; i < visitorCount; i++) {
+                    visitors[i].visit(node);
+                }
+            }
+        }
+
+        for (int i = 0; i < activeCount; i++) {
+            active[i].endScan(graph, entry);
+        }
+
+        // the walk is shared, so is its cost
+        long share = (System.nanoTime() - start) / activeCount;
+        for (int i = 0; i < activeCount; i++) {
+            dumpMap.recordHookTime(activeSlots[i], share);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import cz.cuni.mff.d3s.blood.utils.Options;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Answers what the compiler spends its time on during the whole run, in
+ * constant memory. Keeps {@link TopKSketch} summaries of compiled methods by
+ * compile time (all compilations) and of phase class paths by wall time and
+ * by the number of nodes at their exit (phase runs measured by the phase
+ * timing collector). Phase runs are summed on the compiler thread and added
+ * once per compilation, so the summaries are not locked at every phase exit.
+ * <p>
+ * Configured by system property {@code blood.topk} - number of keys reported
+ * from every summary (20 by default, 0 disables it). Every summary has four
+ * times as many counters. The summaries are written to {@code topk.txt} in
+ * the run directory by the {@link PeriodicWriter} and at exit, and are
+ * available over JMX.
+ */
+public final class HeavyHitters {
+
+    private static final int COUNTERS_PER_KEY = 4;
+    public static final int K = k();
+    public static final String FILE_NAME = "topk.txt";
+
+    private final TopKSketch<Void> methodTime = new TopKSketch<>(K * COUNTERS_PER_KEY);
+    private final TopKSketch<Void> phaseTime = new TopKSketch<>(K * COUNTERS_PER_KEY);
+    private final TopKSketch<Void> phaseNodes = new TopKSketch<>(K * COUNTERS_PER_KEY);
+
+    /**
+     * Implemented by collectors that have something to add to the summaries.
+     */
+    public interface Contributor {
+
+        /**
+         * Called on the compiler thread when the compilation is finished.
+         *
+         * @param heavyHitters the summaries of the run
+         */
+        void contributeTo(HeavyHitters heavyHitters);
+    }
+
+    private static int k() {
+        int k = Options.getInt("blood.topk", 20);
+        if (k < 0) {
+            Options.warn("blood.topk", k, "a non-negative number", 0);
+            return 0;
+        }
+        if (k > Integer.MAX_VALUE / COUNTERS_PER_KEY) {
+            Options.warn("blood.topk", k, "a smaller number", Integer.MAX_VALUE / COUNTERS_PER_KEY);
+            return Integer.MAX_VALUE / COUNTERS_PER_KEY;
+        }
+        return k;
+    }
+
+    /**
+     * Called at the end of every compilation.
+     *
+     * @param methodSignature signature of the compiled method
+     * @param nanos           duration of the compilation
+     */
+    void addCompilation(String methodSignature, long nanos) {
+        methodTime.add(methodSignature, nanos);
+    }
+
+    /**
+     * Called once per compilation with all its measured phase runs.
+     *
+     * @param nanos wall time of the runs by the class names of the phases on
+     *              the stack, the phase last
+     * @param nodes number of nodes of the graph at the exit of the runs by the
+     *              same paths, without runs that have no graph, such as LIR
+     *              phases
+     */
+    public void addPhases(Map<String, Long> nanos, Map<String, Long> nodes) {
+        phaseTime.addAll(nanos);
+        phaseNodes.addAll(nodes);
+    }
+
+    public Map<String, Long> getTopMethodsByTime() {
+        return toMap(methodTime);
+    }
+
+    public Map<String, Long> getTopPhasesByTime() {
+        return toMap(phaseTime);
+    }
+
+    public Map<String, Long> getTopPhasesByNodes() {
+        return toMap(phaseNodes);
+    }
+
+    private static Map<String, Long> toMap(TopKSketch<?> sketch) {
+        var map = new LinkedHashMap<String, Long>();
+        for (TopKSketch.Entry<?> entry : sketch.top(K)) {
+            map.put(entry.getKey(), entry.getCount());
+        }
+        return map;
+    }
+
+    /**
+     * Writes the current state of the summaries to the run directory. Can be
+     * called from any thread at any time.
+     */
+    public synchronized void write() {
+        StringBuilder sb = new StringBuilder();
+        append(sb, "methods by compile time (ns)", methodTime);
+        sb.append('\n');
+        append(sb, "phases by wall time (ns)", phaseTime);
+        sb.append('\n');
+        append(sb, "phases by nodes at exit", phaseNodes);
+        Manager.writeRunFile(FILE_NAME, sb.toString());
+    }
+
+    /**
+     * One line per key, highest first: the estimated weight, its maximum
+     * overestimation and the key.
+     */
+    private static void append(StringBuilder sb, String title, TopKSketch<?> sketch) {
+        sb.append("# ").append(title).append(", total ").append(sketch.getTotal()).append('\n');
+        for (TopKSketch.Entry<?> entry : sketch.top(K)) {
+            sb.append(entry.getCount()).append(' ')
+                    .append(entry.getError()).append(' ')
+                    .append(entry.getKey()).append('\n');
+        }
+    }
+}
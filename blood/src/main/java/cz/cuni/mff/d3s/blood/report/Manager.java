@@ -1,65 +1,535 @@
 package cz.cuni.mff.d3s.blood.report;
 
+import cz.cuni.mff.d3s.blood.report.format.DumpHelpers;
+import cz.cuni.mff.d3s.blood.report.format.DumpSink;
+import cz.cuni.mff.d3s.blood.report.jfr.JfrSupport;
+import cz.cuni.mff.d3s.blood.utils.Options;
+
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public final class Manager {
 
+    /**
+     * Maximum number of complete compilations waiting for the dump IO thread.
+     */
+    private static final int QUEUE_CAPACITY = Integer.getInteger("blood.queue.capacity", 1024);
+    /**
+     * Maximum number of compilations written out before the sink is flushed.
+     */
+    private static final int BATCH_SIZE = Integer.getInteger("blood.queue.batch", 64);
+    private static final OverflowPolicy OVERFLOW_POLICY = Options.getEnum("blood.queue.policy", OverflowPolicy.BLOCK);
+    /**
+     * How long the shutdown hook waits for pending dumps to be written.
+     */
+    private static final long SHUTDOWN_FLUSH_MILLIS = Long.getLong("blood.queue.shutdownflush", 10_000);
+    /**
+     * Number of threads serializing and compressing dumps. With 0, the dump IO
+     * thread does it itself.
+     */
+    private static final int ENCODER_THREADS = Integer.getInteger("blood.compression.workers", Math.max(1, Runtime.getRuntime().availableProcessors() / 4));
+
     /**
      * Contains dumps that are complete and are scheduled for writing out.
      */
-    private static final LinkedBlockingQueue<DumpConfig> pendingDumps = new LinkedBlockingQueue<>();
+    private static final ArrayBlockingQueue<DumpConfig> pendingDumps = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    /**
+     * Contains summaries of dumps that did not fit into
+     * {@link #pendingDumps}. Used with {@link OverflowPolicy#SUMMARY} only.
+     */
+    private static final ConcurrentLinkedQueue<DumpConfig> pendingSummaries = new ConcurrentLinkedQueue<>();
+    private static final DumpStatistics statistics = new DumpStatistics(() -> pendingDumps.size() + pendingSummaries.size(), QUEUE_CAPACITY);
+    /**
+     * Notified by the dump IO thread after each batch.
+     */
+    private static final Object flushLock = new Object();
+    private static final Executor encoder = createEncoder();
 
+    private static final boolean JFR_ENABLED = DumpTarget.current().emitsEvents() && JfrSupport.initialize();
+
+    private static final CompilationSampler sampler = CompilationSampler.fromProperties();
+    private static final OverheadController overheadController = OverheadController.fromProperties();
+    /**
+     * Null unless aggregation is enabled.
+     */
+    private static final RunAggregate aggregate = RunAggregate.MODE != RunAggregate.Mode.OFF ? new RunAggregate() : null;
+    private static final RunTimeline timeline = new RunTimeline();
+    /**
+     * Null unless the ring buffer mode is enabled.
+     */
+    private static final DumpRing ring = DumpRing.CAPACITY > 0 ? new DumpRing() : null;
+    private static final RecompilationTracker recompilations = new RecompilationTracker();
+    /**
+     * Null unless the top-K summaries are enabled.
+     */
+    private static final HeavyHitters heavyHitters = HeavyHitters.K > 0 ? new HeavyHitters() : null;
+    private static final PeriodicWriter reports = createReports();
     /**
-     * Contains the data that are currently collected.
+     * Collectors that are never collected, because there is nothing their
+     * data could go to.
      */
-    private static final ThreadLocal<DumpMap> dumpMap = ThreadLocal.withInitial(DumpMap::new);
+    private static final Set<String> useless = uselessCollectors();
+
+    /**
+     * Contains the data that are currently collected. Null outside of
+     * compilations and in compilations that were not sampled.
+     */
+    private static final ThreadLocal<DumpMap> dumpMap = new ThreadLocal<>();
     private static final ThreadLocal<Instant> compilationStart = ThreadLocal.withInitial(() -> null);
+    /**
+     * The compilation running on the current thread, sampled or not.
+     */
+    private static final ThreadLocal<ObservedCompilation> observed = ThreadLocal.withInitial(ObservedCompilation::new);
 
     static {
-        new Thread("Dump IO") {
+        Thread ioThread = new Thread("Dump IO") {
             @Override
             public void run() {
-                try {
-                    File reportDir = DumpHelpers.getReportDir();
+                File reportDir = DumpHelpers.getReportDir();
+                try (DumpSink sink = DumpSink.create(reportDir)) {
                     long dumpIndex = 0; // protects against compilation request id collisions
+                    var batch = new ArrayList<DumpConfig>(BATCH_SIZE);
                     while (true) {
-                        var d = pendingDumps.take();
-                        d.getDumpMap().dump(reportDir, d, dumpIndex);
-                        dumpIndex++;
+                        // summaries are only created when the queue is full, so waiting on it is enough
+                        var first = pendingDumps.poll(1, TimeUnit.SECONDS);
+                        if (first != null) {
+                            batch.add(first);
+                        }
+                        pendingDumps.drainTo(batch, BATCH_SIZE - batch.size());
+                        DumpConfig summary;
+                        while (batch.size() < BATCH_SIZE && (summary = pendingSummaries.poll()) != null) {
+                            batch.add(summary);
+                        }
+                        timeline.writePending();
+                        reports.writeIfDue();
+                        if (batch.isEmpty()) {
+                            continue;
+                        }
+
+                        long start = System.nanoTime();
+                        var encoded = new ArrayList<CompletableFuture<List<DumpEntry>>>(batch.size());
+                        for (DumpConfig d : batch) {
+                            long index = dumpIndex++;
+                            encoded.add(CompletableFuture.supplyAsync(() -> d.getDumpMap().encode(d, index, statistics), encoder));
+                        }
+                        CompletableFuture.allOf(encoded.toArray(new CompletableFuture<?>[0])).handle((r, t) -> r).join();
+                        long encodedAt = System.nanoTime();
+                        DumpMap.writeStringTable(reportDir);
+                        for (var entries : encoded) {
+                            write(sink, entries);
+                        }
+                        sink.flush();
+                        statistics.recordBatch(batch.size(), encodedAt - start, System.nanoTime() - encodedAt);
+                        batch.clear();
+
+                        synchronized (flushLock) {
+                            flushLock.notifyAll();
+                        }
                     }
                 } catch (InterruptedException ex) {
                     Logger.getLogger(DumpMap.class.getName()).log(Level.INFO, "Dump IO thread stopping due to InterruptedException.");
+                } catch (IOException ex) {
+                    Logger.getLogger(DumpMap.class.getName()).log(Level.SEVERE, "Dump IO thread stopping due to IOException.", ex);
                 }
             }
-        }.start();
+        };
+        ioThread.setDaemon(true);
+        ioThread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread("Dump IO shutdown") {
+            @Override
+            public void run() {
+                flush(SHUTDOWN_FLUSH_MILLIS);
+                writeRunFile("pipeline.txt", statistics.toString());
+                timeline.close();
+                reports.writeAll();
+            }
+        });
+
+        BloodMonitor.register();
+    }
+
+    private static PeriodicWriter createReports() {
+        var writer = new PeriodicWriter().add(recompilations::write);
+        if (heavyHitters != null) {
+            writer.add(heavyHitters::write);
+        }
+        if (aggregate != null) {
+            writer.add(aggregate::write);
+        }
+        return writer;
+    }
+
+    /**
+     * Without dump files, collectors are only useful when they add to
+     * something of the whole run - the aggregate, the top-K summaries or the
+     * timeline, which does not need the phase stack.
+     */
+    private static Set<String> uselessCollectors() {
+        if (DumpTarget.current().writesFiles()) {
+            return Collections.emptySet();
+        }
+
+        var names = new HashSet<String>(Arrays.asList("nodelist", "nodechurn"));
+        if (aggregate == null) {
+            names.add("depmat");
+            names.add("nodemat");
+        }
+        if (heavyHitters == null) {
+            names.add("phasetime");
+        }
+        // only when none of the collectors referring to its states is left
+        if (names.containsAll(Arrays.asList("depmat", "nodemat", "phasetime", "nodechurn"))) {
+            names.add("phasestack");
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    private static Set<String> disabledCollectors() {
+        Set<String> throttled = overheadController.startCompilation();
+        if (useless.isEmpty()) {
+            return throttled;
+        }
+        if (throttled.isEmpty()) {
+            return useless;
+        }
+        var disabled = new HashSet<>(useless);
+        disabled.addAll(throttled);
+        return disabled;
+    }
+
+    private static Executor createEncoder() {
+        if (ENCODER_THREADS <= 0) {
+            return Runnable::run;
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(ENCODER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "Dump encoder " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static void write(DumpSink sink, CompletableFuture<List<DumpEntry>> encoded) {
+        List<DumpEntry> entries;
+        try {
+            entries = encoded.join();
+        } catch (CompletionException ex) {
+            Logger.getLogger(DumpMap.class.getName()).log(Level.WARNING, "Dump encoding failed.", ex.getCause());
+            return;
+        }
+
+        for (DumpEntry entry : entries) {
+            try {
+                sink.write(entry.id, entry.dumpType, entry.data, entry.compressed);
+                statistics.recordBytesWritten(entry.data.length);
+            } catch (IOException ex) {
+                Logger.getLogger(DumpMap.class.getName()).log(Level.WARNING, entry.dumpType, ex);
+            }
+        }
     }
 
-    public static <T extends Dump> T get(Class<T> clazz) {
-        return dumpMap.get().get(clazz);
+    /**
+     * Instrumentation should fetch the context once per hook and pass it on.
+     *
+     * @return collectors of the compilation running on the current thread,
+     * or null when it's not being collected
+     */
+    public static DumpMap getContext() {
+        return dumpMap.get();
+    }
+
+    /**
+     * @return ring of kept compilations, or null when the ring buffer mode is
+     * disabled
+     */
+    static DumpRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Dumps all compilations kept in the ring. Can be called from any thread.
+     *
+     * @param reason recorded in the ring log
+     * @return number of compilations queued for dumping, 0 when the ring
+     * buffer mode is disabled
+     */
+    public static int dumpRing(String reason) {
+        if (ring == null) {
+            return 0;
+        }
+        List<DumpConfig> dumps = ring.drain(reason);
+        for (DumpConfig dumpConfig : dumps) {
+            enqueue(dumpConfig);
+        }
+        return dumps.size();
+    }
+
+    /**
+     * @return trace of the whole run, filled by the timeline collector
+     */
+    public static RunTimeline getTimeline() {
+        return timeline;
     }
 
-    public static void markCompilationStart(String compilationRequestId) {
-        dumpMap.set(new DumpMap());           // clear potentially garbage data
+    /**
+     * @return counts of compilations of every method in the run
+     */
+    public static RecompilationTracker getRecompilations() {
+        return recompilations;
+    }
+
+    /**
+     * @return top-K summaries of the run, or null when they are disabled
+     */
+    public static HeavyHitters getHeavyHitters() {
+        return heavyHitters;
+    }
+
+    /**
+     * @return true when JDK Flight Recorder events are emitted
+     */
+    public static boolean isJfrEnabled() {
+        return JFR_ENABLED;
+    }
+
+    /**
+     * @return true when the current thread is running a compilation that is
+     * being collected
+     */
+    public static boolean isSampled() {
+        return dumpMap.get() != null;
+    }
+
+    public static OverheadController getOverheadController() {
+        return overheadController;
+    }
+
+    public static CompilationSampler getSampler() {
+        return sampler;
+    }
+
+    public static DumpStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return aggregate of the run, or null when aggregation is disabled
+     */
+    public static RunAggregate getRunAggregate() {
+        return aggregate;
+    }
+
+    /**
+     * Waits until all compilations queued so far are written out.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return true when everything was written in time
+     */
+    public static boolean flush(long timeoutMillis) {
+        long target = statistics.getQueued() + statistics.getSummarized();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (flushLock) {
+            while (statistics.getWritten() < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    flushLock.wait(remaining);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a file describing the whole run into the report directory,
+     * replacing any previous version.
+     *
+     * @param name name of the file
+     * @param text contents
+     */
+    static void writeRunFile(String name, String text) {
+        try (var out = new FileOutputStream(new File(DumpHelpers.getReportDir(), name))) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            Logger.getLogger(Manager.class.getName()).log(Level.WARNING, name, ex);
+        }
+    }
+
+    /**
+     * Appends text to a file describing the whole run in the report directory.
+     *
+     * @param name name of the file
+     * @param text text to append
+     */
+    static synchronized void appendRunFile(String name, String text) {
+        try (var out = new FileOutputStream(new File(DumpHelpers.getReportDir(), name), true)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            Logger.getLogger(Manager.class.getName()).log(Level.WARNING, name, ex);
+        }
+    }
+
+    /**
+     * @param compilationRequestId identifier of the compilation
+     * @param methodSignature      signature of the compiled method
+     * @param osr                  whether it is an on-stack replacement
+     *                             compilation
+     */
+    public static void markCompilationStart(String compilationRequestId, String methodSignature, boolean osr) {
+        // observed before sampling, compilations of methods that are not collected matter too
+        ObservedCompilation compilation = observed.get();
+        compilation.methodSignature = methodSignature;
+        compilation.osr = osr;
+        compilation.startNanos = System.nanoTime();
+
+        if (!sampler.shouldSample(methodSignature)) {
+            dumpMap.remove();
+            return;
+        }
+
+        dumpMap.set(new DumpMap(disabledCollectors())); // start collecting from scratch
         compilationStart.set(Instant.now());  // save compilation start time
+        if (JFR_ENABLED) {
+            dumpMap.get().getJfrRecorder().startCompilation(compilationRequestId, methodSignature);
+        }
     }
 
-    public static void markCompilationEnd(String compilationRequestId) {
+    /**
+     * @param compilationRequestId identifier of the compilation
+     * @param graphSize            number of nodes of the graph at the end
+     * @param bailout              whether the compilation failed
+     */
+    public static void markCompilationEnd(String compilationRequestId, int graphSize, boolean bailout) {
+        ObservedCompilation compilation = observed.get();
+        if (compilation.methodSignature != null) {
+            long nanos = System.nanoTime() - compilation.startNanos;
+            recompilations.record(compilation.methodSignature, compilation.osr, nanos, graphSize, bailout);
+            if (heavyHitters != null) {
+                heavyHitters.addCompilation(compilation.methodSignature, nanos);
+            }
+            compilation.methodSignature = null;
+        }
+
+        if (!isSampled()) {
+            return;
+        }
+
         // calculate duration of the compilation
         Instant now = Instant.now();
         Duration compilationDuration = Duration.between(compilationStart.get(), now);
+        overheadController.finishCompilation(compilationDuration.toNanos(), dumpMap.get().getHookNanos());
+        if (aggregate != null) {
+            dumpMap.get().contributeTo(aggregate);
+        }
+        if (heavyHitters != null) {
+            dumpMap.get().contributeTo(heavyHitters);
+        }
+
+        if (JFR_ENABLED) {
+            dumpMap.get().getJfrRecorder().endCompilation();
+        }
 
         // dump data
-        pendingDumps.add(new DumpConfig(dumpMap.get(), compilationRequestId, compilationDuration, compilationStart.get()));
+        if (DumpTarget.current().writesFiles()) {
+            var dumpConfig = new DumpConfig(dumpMap.get(), compilationRequestId, compilationDuration, compilationStart.get());
+            if (ring == null) {
+                enqueue(dumpConfig);
+            } else {
+                // kept in memory, dumped only with the rest of the ring when something interesting happens
+                for (DumpConfig dump : ring.add(dumpConfig, DumpRing.triggerOf(compilationDuration, graphSize, bailout))) {
+                    enqueue(dump);
+                }
+            }
+        }
 
-        // replace data with something different, so that it does not affect the currently dumped information
-        dumpMap.set(new DumpMap());
+        // stop collecting until the next compilation, so that it does not affect the currently dumped information
+        dumpMap.remove();
     }
 
+    private static void enqueue(DumpConfig dumpConfig) {
+        if (pendingDumps.offer(dumpConfig)) {
+            statistics.recordQueued();
+            return;
+        }
+
+        switch (OVERFLOW_POLICY) {
+            case BLOCK:
+                long start = System.nanoTime();
+                try {
+                    pendingDumps.put(dumpConfig);
+                    statistics.recordQueued();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    statistics.recordDropped();
+                }
+                statistics.recordBlocked(System.nanoTime() - start);
+                break;
+            case DROP:
+                statistics.recordDropped();
+                break;
+            case SUMMARY:
+                pendingSummaries.add(dumpConfig.summary());
+                statistics.recordSummarized();
+                break;
+        }
+    }
+
+    /**
+     * What to do with a complete compilation when the queue of pending dumps
+     * is full. Selected by the {@code blood.queue.policy} system property.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Block the compiler thread until there is space in the queue.
+         */
+        BLOCK,
+        /**
+         * Throw the compilation away, only count it.
+         */
+        DROP,
+        /**
+         * Keep only the request and timing entries of the compilation.
+         */
+        SUMMARY
+    }
+
+    /**
+     * Compilation running on a compiler thread, reused for all its
+     * compilations.
+     */
+    private static final class ObservedCompilation {
+
+        private String methodSignature;
+        private boolean osr;
+        private long startNanos;
+    }
 
     public static final class DumpConfig {
         private final DumpMap dumpMap;
@@ -74,10 +544,21 @@ public final class Manager {
             this.compilationStart = compilationStart;
         }
 
+        /**
+         * @return the same compilation without any collected data
+         */
+        public DumpConfig summary() {
+            return new DumpConfig(new DumpMap(), compilationRequestId, duration, compilationStart);
+        }
+
         public DumpMap getDumpMap() {
             return dumpMap;
         }
 
+        public String getCompilationRequestId() {
+            return compilationRequestId;
+        }
+
         public String getCompilationUnitInfo(long index) {
             return compilationRequestId + " #" + index + "\n";
         }
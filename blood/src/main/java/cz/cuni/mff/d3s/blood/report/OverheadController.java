@@ -0,0 +1,266 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import cz.cuni.mff.d3s.blood.utils.Options;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the time spent in blood's own hooks within a budget relative to the
+ * compilation time.
+ * <p>
+ * After every collected compilation, the time its hooks took is compared with
+ * the rest of the compilation and folded into a rolling average. When the
+ * average exceeds the budget, the throttleable collector with the largest
+ * share of the hook time is degraded - first it is collected only in every
+ * second, fourth, ... compilation and finally it is suspended. Every decision
+ * is appended to {@code overhead.log} in the run directory. Collectors are
+ * never re-enabled automatically, but they can be disabled and re-enabled
+ * manually, for example over JMX.
+ * <p>
+ * Configured by system properties {@code blood.overhead.budget} (fraction of
+ * compile time, for example {@code 0.2}; no budget by default) and
+ * {@code blood.overhead.collectors} (comma-separated dump names that may be
+ * throttled, {@code depmat,nodemat,nodelist,nodechurn} by default). The phase
+ * stack cannot be throttled or disabled, other collectors refer to its
+ * states.
+ */
+public final class OverheadController {
+
+    public static final String LOG_FILE_NAME = "overhead.log";
+    /**
+     * Weight of the latest compilation in the rolling average.
+     */
+    private static final double SMOOTHING = 0.05;
+    /**
+     * Number of compilations to wait after a decision before making another
+     * one, so that the average can reflect it.
+     */
+    private static final long COOLDOWN = 50;
+    /**
+     * Collectors throttled to every 2^MAX_LEVEL-th compilation are suspended
+     * on the next degradation.
+     */
+    private static final int MAX_LEVEL = 4;
+    private static final int SUSPENDED = MAX_LEVEL + 1;
+    /**
+     * Collectors that other collectors depend on.
+     */
+    private static final Set<String> REQUIRED = Set.of("phasestack");
+
+    private final double budget;
+    private final Set<String> throttleable;
+
+    private final AtomicLong compilations = new AtomicLong();
+    private final Map<String, Integer> levels = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> hookNanos = new ConcurrentHashMap<>();
+    /**
+     * Hook time since the last decision, used to pick the next collector to
+     * throttle.
+     */
+    private final Map<String, AtomicLong> recentHookNanos = new ConcurrentHashMap<>();
+    /**
+     * Immutable; replaced on every decision.
+     */
+    private volatile Set<String> affected = Collections.emptySet();
+    /**
+     * Immutable; collectors disabled manually.
+     */
+    private volatile Set<String> manuallyDisabled = Collections.emptySet();
+
+    private double averageOverhead = 0;
+    private long lastDecision = 0;
+
+    public OverheadController(double budget, Set<String> throttleable) {
+        this.budget = budget;
+        this.throttleable = throttleable;
+    }
+
+    public static OverheadController fromProperties() {
+        double budget = Options.getDouble("blood.overhead.budget", Double.POSITIVE_INFINITY);
+        if (budget < 0) {
+            Options.warn("blood.overhead.budget", budget, "a non-negative fraction", "no budget");
+            budget = Double.POSITIVE_INFINITY;
+        }
+        String collectors = System.getProperty("blood.overhead.collectors", "depmat,nodemat,nodelist,nodechurn");
+        return new OverheadController(
+                budget,
+                Arrays.stream(collectors.split(","))
+                        .map(String::strip)
+                        .filter(s -> !s.isEmpty())
+                        .filter(OverheadController::canDisable)
+                        .collect(Collectors.toUnmodifiableSet()));
+    }
+
+    private static boolean canDisable(String name) {
+        if (REQUIRED.contains(name)) {
+            Options.warn("blood.overhead.collectors", name, "collectors that can be disabled", "the others");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Called at the start of every collected compilation.
+     *
+     * @return names of collectors that must not collect in this compilation
+     */
+    public Set<String> startCompilation() {
+        long number = compilations.getAndIncrement();
+        Set<String> current = affected;
+        Set<String> manual = manuallyDisabled;
+        if (current.isEmpty()) {
+            return manual;
+        }
+
+        Set<String> disabled = new HashSet<>(manual);
+        for (String name : current) {
+            int level = levels.getOrDefault(name, 0);
+            if (level >= SUSPENDED || (number & ((1L << level) - 1)) != 0) {
+                disabled.add(name);
+            }
+        }
+        return disabled;
+    }
+
+    /**
+     * Called at the end of every collected compilation.
+     *
+     * @param compileNanos total duration of the compilation, hooks included
+     * @param hooks        time spent in hooks of each collector, by dump name
+     */
+    public void finishCompilation(long compileNanos, Map<String, Long> hooks) {
+        long total = 0;
+        for (Map.Entry<String, Long> hook : hooks.entrySet()) {
+            hookNanos.computeIfAbsent(hook.getKey(), name -> new AtomicLong()).addAndGet(hook.getValue());
+            recentHookNanos.computeIfAbsent(hook.getKey(), name -> new AtomicLong()).addAndGet(hook.getValue());
+            total += hook.getValue();
+        }
+
+        if (budget == Double.POSITIVE_INFINITY) {
+            return;
+        }
+
+        double overhead = (double) total / Math.max(compileNanos - total, 1);
+        synchronized (this) {
+            averageOverhead += SMOOTHING * (overhead - averageOverhead);
+
+            long number = compilations.get();
+            if (averageOverhead <= budget || number - lastDecision < COOLDOWN) {
+                return;
+            }
+            lastDecision = number;
+            degrade(number);
+        }
+    }
+
+    private void degrade(long number) {
+        String worst = recentHookNanos.entrySet().stream()
+                .filter(entry -> throttleable.contains(entry.getKey()))
+                .filter(entry -> levels.getOrDefault(entry.getKey(), 0) < SUSPENDED)
+                .max(Map.Entry.comparingByValue((a, b) -> Long.compare(a.get(), b.get())))
+                .map(Map.Entry::getKey)
+                .orElse(null);
+
+        String decision;
+        if (worst == null) {
+            decision = "nothing left to throttle";
+        } else {
+            int level = levels.getOrDefault(worst, 0) + 1;
+            levels.put(worst, level);
+            // reset shares, so that the next decision is based on the new configuration
+            recentHookNanos.values().forEach(nanos -> nanos.set(0));
+
+            Set<String> newAffected = new HashSet<>(affected);
+            newAffected.add(worst);
+            affected = Collections.unmodifiableSet(newAffected);
+
+            decision = level >= SUSPENDED
+                    ? "suspending " + worst
+                    : "collecting " + worst + " in every " + (1L << level) + ". compilation";
+        }
+
+        Manager.appendRunFile(LOG_FILE_NAME, String.format("%s compilation %d overhead %.1f%% budget %.1f%%: %s%n",
+                Instant.now(), number, averageOverhead * 100, budget * 100, decision));
+    }
+
+    /**
+     * Disables a collector in all following compilations, regardless of the
+     * budget.
+     *
+     * @param name dump name of the collector
+     * @throws IllegalArgumentException when other collectors depend on it
+     */
+    public synchronized void disable(String name) {
+        if (REQUIRED.contains(name)) {
+            throw new IllegalArgumentException(name + " cannot be disabled, other collectors depend on it");
+        }
+        Set<String> newDisabled = new HashSet<>(manuallyDisabled);
+        newDisabled.add(name);
+        manuallyDisabled = Collections.unmodifiableSet(newDisabled);
+
+        Manager.appendRunFile(LOG_FILE_NAME, String.format("%s compilation %d: disabling %s manually%n",
+                Instant.now(), compilations.get(), name));
+    }
+
+    /**
+     * Enables a collector disabled manually or throttled because of the
+     * budget. Throttling starts again from scratch.
+     *
+     * @param name dump name of the collector
+     */
+    public synchronized void enable(String name) {
+        Set<String> newDisabled = new HashSet<>(manuallyDisabled);
+        newDisabled.remove(name);
+        manuallyDisabled = Collections.unmodifiableSet(newDisabled);
+
+        levels.remove(name);
+        Set<String> newAffected = new HashSet<>(affected);
+        newAffected.remove(name);
+        affected = Collections.unmodifiableSet(newAffected);
+
+        Manager.appendRunFile(LOG_FILE_NAME, String.format("%s compilation %d: enabling %s manually%n",
+                Instant.now(), compilations.get(), name));
+    }
+
+    /**
+     * @return names of collectors that are disabled manually or throttled,
+     * with the number of compilations out of which they are collected in
+     * one, or 0 when they are not collected at all
+     */
+    public synchronized Map<String, Long> getThrottled() {
+        var throttled = new TreeMap<String, Long>();
+        for (String name : affected) {
+            int level = levels.getOrDefault(name, 0);
+            throttled.put(name, level >= SUSPENDED ? 0 : 1L << level);
+        }
+        for (String name : manuallyDisabled) {
+            throttled.put(name, 0L);
+        }
+        return throttled;
+    }
+
+    /**
+     * @return rolling average of hook time relative to the rest of the
+     * compilation time
+     */
+    public synchronized double getAverageOverhead() {
+        return averageOverhead;
+    }
+
+    /**
+     * @return total time spent in hooks of each collector, by dump name
+     */
+    public Map<String, Long> getHookNanos() {
+        return hookNanos.entrySet().stream()
+                .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, entry -> entry.getValue().get()));
+    }
+}
@@ -0,0 +1,49 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewrites the reports of the whole run (aggregate, recompilations, top-K
+ * summaries) in the run directory, so that they can be looked at while the
+ * VM is running. All reports share one interval, set by the
+ * {@code blood.report.interval} system property in seconds (60 by default).
+ * They are written once more at exit.
+ */
+final class PeriodicWriter {
+
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("blood.report.interval", 60));
+
+    private final List<Runnable> reports = new ArrayList<>();
+    private long lastWrite = System.nanoTime();
+
+    /**
+     * @param report writes one report, must be safe to call from any thread
+     * @return this writer
+     */
+    PeriodicWriter add(Runnable report) {
+        reports.add(report);
+        return this;
+    }
+
+    /**
+     * Writes the reports if the interval has elapsed. Called regularly by the
+     * dump IO thread.
+     */
+    void writeIfDue() {
+        if (System.nanoTime() - lastWrite >= INTERVAL_NANOS) {
+            lastWrite = System.nanoTime();
+            writeAll();
+        }
+    }
+
+    /**
+     * Writes all reports now, in the order they were added.
+     */
+    void writeAll() {
+        for (Runnable report : reports) {
+            report.run();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import cz.cuni.mff.d3s.blood.utils.Options;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * Counts compilations of every method over the whole run, so that methods
+ * compiled again and again (typically because of deoptimization loops) stand
+ * out. All compilations are counted, not only the sampled ones.
+ * <p>
+ * Memory is bounded by {@code blood.recompilations.max} methods (10000 by
+ * default). Methods are counted by a {@link TopKSketch}, so when there are
+ * more of them, the least compiled one makes room for the new one. A method
+ * that is compiled often is therefore never forgotten and the number of its
+ * compilations is never underestimated; at most the reported error of them
+ * happened before it was tracked and are missing from its other statistics.
+ * <p>
+ * The report {@code recompilations.txt} is written to the run directory by
+ * the {@link PeriodicWriter} and at exit. Methods compiled more than once are ranked by the
+ * number of compilations, then by the total compile time.
+ */
+public final class RecompilationTracker {
+
+    public static final String FILE_NAME = "recompilations.txt";
+    private static final int MAX_METHODS = maxMethods();
+
+    private final TopKSketch<Method> methods = new TopKSketch<>(MAX_METHODS);
+
+    private static int maxMethods() {
+        int max = Options.getInt("blood.recompilations.max", 10000);
+        if (max < 1) {
+            Options.warn("blood.recompilations.max", max, "a positive number", 1);
+            return 1;
+        }
+        return max;
+    }
+
+    /**
+     * Called at the end of every compilation.
+     *
+     * @param methodSignature signature of the compiled method
+     * @param osr             whether it was an on-stack replacement
+     *                        compilation
+     * @param nanos           duration of the compilation
+     * @param graphSize       number of nodes of the graph at the end
+     * @param bailout         whether the compilation failed
+     */
+    void record(String methodSignature, boolean osr, long nanos, int graphSize, boolean bailout) {
+        methods.add(methodSignature, 1, Method::new, method -> method.add(osr, bailout, nanos, graphSize));
+    }
+
+    synchronized void write() {
+        var ranked = new ArrayList<Ranked>();
+        for (TopKSketch.Entry<Method> entry : methods.top(MAX_METHODS)) {
+            if (entry.getCount() > 1) {
+                // snapshots, so that the order does not change while sorting
+                ranked.add(new Ranked(entry, entry.getValue().snapshot()));
+            }
+        }
+        ranked.sort(Comparator.<Ranked>comparingLong(r -> r.entry.getCount())
+                .thenComparingLong(r -> r.stats[3])
+                .reversed());
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("# compilations ").append(methods.getTotal())
+                .append(", methods tracked at most ").append(MAX_METHODS).append('\n');
+        sb.append("# compilations error osr bailouts total_us max_us avg_nodes max_nodes method\n");
+        for (Ranked r : ranked) {
+            long[] s = r.stats;
+            sb.append(r.entry.getCount()).append(' ')
+                    .append(r.entry.getError()).append(' ')
+                    .append(s[1]).append(' ')
+                    .append(s[2]).append(' ')
+                    .append(s[3] / 1000).append(' ')
+                    .append(s[4] / 1000).append(' ')
+                    .append(s[0] == 0 ? 0 : s[5] / s[0]).append(' ')
+                    .append(s[6]).append(' ')
+                    .append(r.entry.getKey()).append('\n');
+        }
+        Manager.writeRunFile(FILE_NAME, sb.toString());
+    }
+
+    private static final class Ranked {
+
+        private final TopKSketch.Entry<Method> entry;
+        private final long[] stats;
+
+        private Ranked(TopKSketch.Entry<Method> entry, long[] stats) {
+            this.entry = entry;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * Statistics of one method since it was tracked. Updated by all compiler
+     * threads while the sketch is locked, read by the writer.
+     */
+    private static final class Method {
+
+        private long compilations;
+        private long osrCompilations;
+        private long bailouts;
+        private long totalNanos;
+        private long maxNanos;
+        private long totalNodes;
+        private long maxNodes;
+
+        synchronized void add(boolean osr, boolean bailout, long nanos, int nodes) {
+            compilations++;
+            if (osr) {
+                osrCompilations++;
+            }
+            if (bailout) {
+                bailouts++;
+            }
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            totalNodes += nodes;
+            maxNodes = Math.max(maxNodes, nodes);
+        }
+
+        synchronized long[] snapshot() {
+            return new long[]{compilations, osrCompilations, bailouts, totalNanos, maxNanos, totalNodes, maxNodes};
+        }
+    }
+}
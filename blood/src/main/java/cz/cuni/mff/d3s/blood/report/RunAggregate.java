@@ -0,0 +1,105 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import cz.cuni.mff.d3s.blood.utils.Options;
+import cz.cuni.mff.d3s.blood.utils.matrix.ConcurrentCounterMatrix;
+
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Sums the phase dependency and node type matrices of all compilations of the
+ * run. Compiler threads add their finished compilations concurrently, rows and
+ * columns are keyed by the phase class path instead of per-compilation phase
+ * stack states.
+ * <p>
+ * The aggregate is written to the run directory by the {@link PeriodicWriter}
+ * and at exit as
+ * {@code aggregate.phasestack}, {@code aggregate.depmat} and
+ * {@code aggregate.nodemat}, in the same format as the dumps of a single
+ * compilation, so they can be viewed the same way.
+ */
+public final class RunAggregate {
+
+    public static final Mode MODE = Options.getEnum("blood.aggregate", Mode.OFF);
+
+    /**
+     * Implemented by collectors that have something to add to the aggregate.
+     */
+    public interface Contributor {
+
+        /**
+         * Called on the compiler thread when the compilation is finished.
+         *
+         * @param aggregate the aggregate of the run
+         */
+        void contributeTo(RunAggregate aggregate);
+    }
+
+    private final ConcurrentCounterMatrix<String, String> depMat = new ConcurrentCounterMatrix<>();
+    private final ConcurrentCounterMatrix<String, String> nodeMatEntry = new ConcurrentCounterMatrix<>();
+    private final ConcurrentCounterMatrix<String, String> nodeMatExit = new ConcurrentCounterMatrix<>();
+
+    /**
+     * @return rows are phase paths, columns paths of the phases that created
+     * the nodes
+     */
+    public ConcurrentCounterMatrix<String, String> getDepMat() {
+        return depMat;
+    }
+
+    /**
+     * @return rows are phase paths, columns node class names
+     */
+    public ConcurrentCounterMatrix<String, String> getNodeMatEntry() {
+        return nodeMatEntry;
+    }
+
+    /**
+     * @return rows are phase paths, columns node class names
+     */
+    public ConcurrentCounterMatrix<String, String> getNodeMatExit() {
+        return nodeMatExit;
+    }
+
+    synchronized void write() {
+        var phases = new TreeSet<String>(depMat.rowKeys());
+        phases.addAll(depMat.colKeys());
+        phases.addAll(nodeMatEntry.rowKeys());
+        phases.addAll(nodeMatExit.rowKeys());
+        var phaseList = List.copyOf(phases);
+        String phaseIds = IntStream.range(0, phaseList.size())
+                .mapToObj(Integer::toString)
+                .collect(Collectors.joining("\n"));
+
+        var nodeClasses = new TreeSet<String>(nodeMatEntry.colKeys());
+        nodeClasses.addAll(nodeMatExit.colKeys());
+        var nodeClassList = List.copyOf(nodeClasses);
+
+        Manager.writeRunFile("aggregate.phasestack", String.join("\n", phaseList));
+        Manager.writeRunFile("aggregate.depmat", phaseIds + "\n\n" + depMat.toString(phaseList, phaseList));
+        Manager.writeRunFile("aggregate.nodemat", String.join("\n", nodeClassList) + "\n\n" + phaseIds + "\n\n"
+                + nodeMatEntry.toString(phaseList, nodeClassList) + "\n\n"
+                + nodeMatExit.toString(phaseList, nodeClassList));
+    }
+
+    /**
+     * Selected by the {@code blood.aggregate} system property.
+     */
+    public enum Mode {
+        /**
+         * No aggregation.
+         */
+        OFF,
+        /**
+         * Aggregate in addition to the dumps of every compilation.
+         */
+        ON,
+        /**
+         * Aggregate instead of writing dumps of contributing collectors for
+         * every compilation.
+         */
+        ONLY
+    }
+}
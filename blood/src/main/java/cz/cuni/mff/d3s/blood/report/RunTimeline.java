@@ -0,0 +1,156 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Trace of all compilations of the run in the Chrome trace event format, which
+ * can be opened by {@code chrome://tracing} or Perfetto. Compiler threads hand
+ * over their finished compilations, the dump IO thread formats them and
+ * appends them to {@code timeline.json} in the run directory.
+ * <p>
+ * The file is a JSON array of events that is only closed at exit. Trace
+ * viewers accept an unterminated array, so the file of a crashed or still
+ * running JVM can be opened too.
+ */
+public final class RunTimeline {
+
+    public static final String FILE_NAME = "timeline.json";
+
+    /**
+     * Time zero of the trace, timestamps are relative to it.
+     */
+    private static final long ORIGIN = System.nanoTime();
+    private static final long PID = ProcessHandle.current().pid();
+
+    /**
+     * Implemented by collectors that have events for the timeline.
+     */
+    public interface Source {
+
+        /**
+         * Called on the dump IO thread, once the compilation is finished.
+         *
+         * @param timeline the timeline, for its formatting helpers
+         * @param out      receives the events, each followed by a comma and
+         *                 a new line
+         */
+        void appendEvents(RunTimeline timeline, StringBuilder out);
+    }
+
+    private final ConcurrentLinkedQueue<Source> pending = new ConcurrentLinkedQueue<>();
+    private boolean started = false;
+
+    /**
+     * Called on the compiler thread when the compilation is finished.
+     *
+     * @param source events of the compilation
+     */
+    public void add(Source source) {
+        pending.add(source);
+    }
+
+    /**
+     * Appends pending compilations to the file. Called regularly by the dump
+     * IO thread.
+     */
+    synchronized void writePending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        StringBuilder out = new StringBuilder(4096);
+        if (!started) {
+            out.append("[\n");
+            started = true;
+        }
+        Source source;
+        while ((source = pending.poll()) != null) {
+            source.appendEvents(this, out);
+        }
+        Manager.appendRunFile(FILE_NAME, out.toString());
+    }
+
+    /**
+     * Writes pending compilations and closes the array. Called at exit.
+     */
+    synchronized void close() {
+        writePending();
+        if (started) {
+            Manager.appendRunFile(FILE_NAME, "{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":" + PID
+                    + ",\"args\":{\"name\":\"blood\"}}\n]\n");
+        }
+    }
+
+    /**
+     * Appends a complete ({@code "ph":"X"}) event.
+     *
+     * @param out      the output
+     * @param name     name of the event
+     * @param category category of the event
+     * @param threadId thread the event happened on
+     * @param start    {@link System#nanoTime()} at the beginning
+     * @param end      {@link System#nanoTime()} at the end
+     * @param args     JSON object with additional information, or null
+     */
+    public void appendEvent(StringBuilder out, String name, String category, long threadId, long start, long end, String args) {
+        out.append("{\"name\":\"");
+        appendEscaped(out, name);
+        out.append("\",\"cat\":\"").append(category)
+                .append("\",\"ph\":\"X\",\"pid\":").append(PID)
+                .append(",\"tid\":").append(threadId)
+                .append(",\"ts\":");
+        appendMicros(out, start - ORIGIN);
+        out.append(",\"dur\":");
+        appendMicros(out, end - start);
+        if (args != null) {
+            out.append(",\"args\":").append(args);
+        }
+        out.append("},\n");
+    }
+
+    /**
+     * Appends a metadata event naming a thread.
+     */
+    public void appendThreadName(StringBuilder out, long threadId, String threadName) {
+        out.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":").append(PID)
+                .append(",\"tid\":").append(threadId)
+                .append(",\"args\":{\"name\":\"");
+        appendEscaped(out, threadName);
+        out.append("\"}},\n");
+    }
+
+    /**
+     * Appends a JSON string without the quotes.
+     */
+    public static void appendEscaped(StringBuilder out, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    /**
+     * Trace timestamps are in microseconds, the fraction keeps the nanoseconds.
+     */
+    private static void appendMicros(StringBuilder out, long nanos) {
+        if (nanos < 0) {
+            out.append('-');
+            nanos = -nanos;
+        }
+        long fraction = nanos % 1000;
+        out.append(nanos / 1000).append('.');
+        if (fraction < 100) {
+            out.append('0');
+        }
+        if (fraction < 10) {
+            out.append('0');
+        }
+        out.append(fraction);
+    }
+}
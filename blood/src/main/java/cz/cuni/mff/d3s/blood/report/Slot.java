@@ -0,0 +1,73 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * Statically assigned place of a collector in the per-compilation
+ * {@link DumpMap}. Every collector declares one as a constant, for example
+ * <pre>
+ * public static final Slot&lt;NodeListCollector&gt; SLOT = Slot.of("nodelist", NodeListCollector::new);
+ * </pre>
+ * and instrumentation reaches the collector of the current compilation by
+ * {@code context.get(SLOT)}, which is an array access.
+ *
+ * @param <T> type of the collector
+ */
+public final class Slot<T extends Dump> {
+
+    /**
+     * All slots, the index in this list is the slot index.
+     */
+    private static final CopyOnWriteArrayList<Slot<?>> slots = new CopyOnWriteArrayList<>();
+
+    private final int index;
+    private final String name;
+    private final Function<DumpMap, T> factory;
+
+    private Slot(int index, String name, Function<DumpMap, T> factory) {
+        this.index = index;
+        this.name = name;
+        this.factory = factory;
+    }
+
+    /**
+     * Registers a collector. Must only be used to initialize a
+     * {@code static final} field.
+     *
+     * @param name    dump name of the collector, used as its file extension
+     * @param factory creates the collector of a compilation, it may get other
+     *                collectors from the passed compilation context
+     * @return the slot of the collector
+     */
+    public static synchronized <T extends Dump> Slot<T> of(String name, Function<DumpMap, T> factory) {
+        Slot<T> slot = new Slot<>(slots.size(), name, factory);
+        slots.add(slot);
+        return slot;
+    }
+
+    static int count() {
+        return slots.size();
+    }
+
+    static Slot<?> get(int index) {
+        return slots.get(index);
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    T create(DumpMap context) {
+        return factory.apply(context);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
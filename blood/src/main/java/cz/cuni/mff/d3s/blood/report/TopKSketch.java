@@ -0,0 +1,225 @@
+package cz.cuni.mff.d3s.blood.report;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Space-Saving summary of a weighted stream of keys. Uses a fixed number of
+ * counters, however many distinct keys there are. A key that is not counted
+ * takes over the counter with the smallest count, which it keeps as its
+ * error. The estimate of a key is never lower than its true weight and at
+ * most its error higher, so keys whose weight exceeds the total divided by
+ * the number of counters are always found.
+ * <p>
+ * Every counter can carry a value describing its key, such as more detailed
+ * statistics. A key that takes over a counter gets a new value, so the value
+ * only describes the occurrences counted since then.
+ * <p>
+ * Counters are kept in a binary min-heap, so an update takes logarithmic
+ * time. Safe to use from multiple threads.
+ *
+ * @param <V> type of the values attached to the counters
+ */
+public final class TopKSketch<V> {
+
+    private final String[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final Object[] values;
+    /**
+     * Position of every counted key in the heap.
+     */
+    private final HashMap<String, Integer> positions;
+    private int size = 0;
+    private long total = 0;
+
+    /**
+     * @param capacity number of counters, positive
+     */
+    public TopKSketch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("A sketch needs at least one counter, got " + capacity);
+        }
+        keys = new String[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        values = new Object[capacity];
+        positions = new HashMap<>((int) Math.min(capacity * 2L, 1 << 30));
+    }
+
+    /**
+     * @param key    the key
+     * @param weight weight of this occurrence, not negative
+     */
+    public void add(String key, long weight) {
+        add(key, weight, () -> null, value -> {
+        });
+    }
+
+    /**
+     * @param key      the key
+     * @param weight   weight of this occurrence, not negative
+     * @param newValue creates the value of the key when it takes a counter
+     * @param update   applied to the value of the key while the sketch is
+     *                 locked, so that the counter cannot be taken over
+     *                 meanwhile
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void add(String key, long weight, Supplier<V> newValue, Consumer<? super V> update) {
+        total += weight;
+
+        Integer position = positions.get(key);
+        if (position != null) {
+            update.accept((V) values[position]);
+            counts[position] += weight;
+            siftDown(position);
+            return;
+        }
+        V value = newValue.get();
+        if (size < keys.length) {
+            keys[size] = key;
+            counts[size] = weight;
+            errors[size] = 0;
+            values[size] = value;
+            positions.put(key, size);
+            siftUp(size++);
+        } else {
+            // replace the smallest counter, which is the root of the heap
+            positions.remove(keys[0]);
+            keys[0] = key;
+            errors[0] = counts[0];
+            counts[0] += weight;
+            values[0] = value;
+            positions.put(key, 0);
+            siftDown(0);
+        }
+        update.accept(value);
+    }
+
+    /**
+     * Adds many keys at once, holding the lock only once.
+     *
+     * @param weights weights of the keys, not negative
+     */
+    public synchronized void addAll(Map<String, Long> weights) {
+        for (var entry : weights.entrySet()) {
+            add(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (counts[parent] <= counts[i]) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && counts[left] < counts[smallest]) {
+                smallest = left;
+            }
+            if (right < size && counts[right] < counts[smallest]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        String key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        long count = counts[a];
+        counts[a] = counts[b];
+        counts[b] = count;
+        long error = errors[a];
+        errors[a] = errors[b];
+        errors[b] = error;
+        Object value = values[a];
+        values[a] = values[b];
+        values[b] = value;
+        positions.put(keys[a], a);
+        positions.put(keys[b], b);
+    }
+
+    /**
+     * @param k maximum number of keys to return
+     * @return keys with the highest estimates, highest first
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<Entry<V>> top(int k) {
+        var entries = new ArrayList<Entry<V>>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(new Entry<>(keys[i], counts[i], errors[i], (V) values[i]));
+        }
+        entries.sort(Comparator.<Entry<V>>comparingLong(Entry::getCount).reversed());
+        return entries.subList(0, Math.min(k, entries.size()));
+    }
+
+    /**
+     * @return sum of all weights added so far
+     */
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /**
+     * Estimate of the weight of one key.
+     */
+    public static final class Entry<V> {
+
+        private final String key;
+        private final long count;
+        private final long error;
+        private final V value;
+
+        private Entry(String key, long count, long error, V value) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+            this.value = value;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return estimated weight, never lower than the true one
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return maximum overestimation of the weight
+         */
+        public long getError() {
+            return error;
+        }
+
+        /**
+         * @return value of the counter, null if none was given
+         */
+        public V getValue() {
+            return value;
+        }
+    }
+}
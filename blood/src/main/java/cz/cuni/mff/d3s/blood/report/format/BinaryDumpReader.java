@@ -0,0 +1,216 @@
+package cz.cuni.mff.d3s.blood.report.format;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decodes one binary dump entry written by {@link BinaryDumpWriter}. Every
+ * {@code write*} method of the writer has a matching {@code read*} method
+ * here.
+ * <p>
+ * This class does not depend on Graal, so it can be used by tools processing
+ * the dumps.
+ */
+public final class BinaryDumpReader {
+
+    private final InputStream in;
+    private final StringTable strings;
+    private final String dumpName;
+
+    /**
+     * Reads the header of an entry.
+     *
+     * @param in      entry data, not compressed
+     * @param strings string table of the run the entry belongs to
+     * @throws IOException when the data are not a binary dump entry
+     */
+    public BinaryDumpReader(InputStream in, StringTable strings) throws IOException {
+        this.in = in;
+        this.strings = strings;
+
+        byte[] magic = in.readNBytes(BinaryDumpWriter.MAGIC.length);
+        if (!Arrays.equals(magic, BinaryDumpWriter.MAGIC)) {
+            throw new IOException("Not a binary dump");
+        }
+        int version = in.read();
+        if (version != BinaryDumpWriter.VERSION) {
+            throw new IOException("Unsupported binary dump version " + version);
+        }
+        dumpName = readString();
+    }
+
+    /**
+     * Opens an entry file. Files ending with {@code .gz} are decompressed.
+     *
+     * @param file    the entry file
+     * @param strings string table of the run the entry belongs to
+     * @return reader positioned after the header
+     * @throws IOException when the file cannot be read
+     */
+    public static BinaryDumpReader open(File file, StringTable strings) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+        }
+        return new BinaryDumpReader(in, strings);
+    }
+
+    /**
+     * Reads an unsigned varint from a stream.
+     *
+     * @param in          the stream
+     * @param eofAllowed  whether end of stream before the first byte is a
+     *                    valid outcome
+     * @return the value, or -1 on allowed end of stream
+     * @throws IOException on read failure or unexpected end of stream
+     */
+    public static long readVarLong(InputStream in, boolean eofAllowed) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0 && eofAllowed) {
+                    return -1;
+                }
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public String getDumpName() {
+        return dumpName;
+    }
+
+    public long readVarLong() throws IOException {
+        return readVarLong(in, false);
+    }
+
+    public long readSignedVarLong() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public String readString() throws IOException {
+        return strings.get((int) readVarLong());
+    }
+
+    public List<String> readStringList() throws IOException {
+        int length = (int) readVarLong();
+        List<String> list = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            list.add(readString());
+        }
+        return list;
+    }
+
+    public int[] readIntList() throws IOException {
+        int[] list = new int[(int) readVarLong()];
+        for (int i = 0; i < list.length; i++) {
+            list[i] = (int) readSignedVarLong();
+        }
+        return list;
+    }
+
+    /**
+     * Reads a tree written by {@link BinaryDumpWriter#writeTree}.
+     *
+     * @return for every node, labels on the path from the top-level node to
+     * it, joined with a space
+     * @throws IOException on read failure
+     */
+    public String[] readTreePaths() throws IOException {
+        String[] paths = new String[(int) readVarLong()];
+        for (int i = 0; i < paths.length; i++) {
+            int parent = (int) readVarLong() - 1;
+            String label = readString();
+            paths[i] = parent < 0 ? label : paths[parent] + " " + label;
+        }
+        return paths;
+    }
+
+    public CounterMatrix readMatrix() throws IOException {
+        int rows = (int) readVarLong();
+        int cols = (int) readVarLong();
+        CounterMatrix matrix = new CounterMatrix(rows, cols);
+        for (int row = 0; row < rows; row++) {
+            int cells = (int) readVarLong();
+            int col = -1;
+            for (int i = 0; i < cells; i++) {
+                col += (int) readVarLong() + 1;
+                int base = (row * cols + col) * 3;
+                matrix.values[base] = readVarLong();
+                matrix.values[base + 1] = readVarLong();
+                matrix.values[base + 2] = readVarLong();
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Decoded counter matrix. Cells that were not present in the dump are
+     * zero.
+     */
+    public static final class CounterMatrix {
+
+        private final int rows;
+        private final int cols;
+        private final long[] values;
+
+        private CounterMatrix(int rows, int cols) {
+            this.rows = rows;
+            this.cols = cols;
+            this.values = new long[rows * cols * 3];
+        }
+
+        public int getRowCount() {
+            return rows;
+        }
+
+        public int getColCount() {
+            return cols;
+        }
+
+        public long getCount(int row, int col) {
+            return values[(row * cols + col) * 3];
+        }
+
+        public long getTotal(int row, int col) {
+            return values[(row * cols + col) * 3 + 1];
+        }
+
+        public long getIterations(int row, int col) {
+            return values[(row * cols + col) * 3 + 2];
+        }
+
+        /**
+         * @return the matrix in the {@code X:Y:Z} text format of the text
+         * dumps
+         */
+        @Override
+        public String toString() {
+            StringJoiner lines = new StringJoiner("\n");
+            for (int row = 0; row < rows; row++) {
+                StringJoiner line = new StringJoiner(" ");
+                for (int col = 0; col < cols; col++) {
+                    line.add(getCount(row, col) + ":" + getTotal(row, col) + ":" + getIterations(row, col));
+                }
+                lines.add(line.toString());
+            }
+            return lines.toString();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package cz.cuni.mff.d3s.blood.report.format;
+
+import cz.cuni.mff.d3s.blood.utils.matrix.ConcurrentCounterMatrix;
+import cz.cuni.mff.d3s.blood.utils.matrix.Matrix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Encodes one binary dump entry.
+ * <p>
+ * Every entry starts with a header: magic {@code BLDD}, format version byte
+ * and the dump name as a string. Integers are unsigned LEB128 varints, signed
+ * values are zigzag-encoded first. Strings are indices into the per-run
+ * {@link StringTable}.
+ *
+ * @see BinaryDumpReader
+ */
+public final class BinaryDumpWriter {
+
+    static final byte[] MAGIC = {'B', 'L', 'D', 'D'};
+    static final int VERSION = 1;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+    private final StringTable strings;
+
+    public BinaryDumpWriter(StringTable strings, String dumpName) {
+        this.strings = strings;
+        out.writeBytes(MAGIC);
+        out.write(VERSION);
+        writeString(dumpName);
+    }
+
+    public static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    public void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    public void writeSignedVarLong(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeString(String string) {
+        writeVarLong(strings.intern(string));
+    }
+
+    public void writeStringList(List<String> list) {
+        writeVarLong(list.size());
+        for (String string : list) {
+            writeString(string);
+        }
+    }
+
+    public void writeIntList(int[] list, int length) {
+        writeVarLong(length);
+        for (int i = 0; i < length; i++) {
+            writeSignedVarLong(list[i]);
+        }
+    }
+
+    /**
+     * Writes a tree of labels. Node {@code i} has the parent
+     * {@code parents[i]}, which is either -1 for top-level nodes or an index
+     * lower than {@code i}.
+     *
+     * @param parents parent indices
+     * @param labels  labels of the nodes
+     * @param length  number of nodes
+     */
+    public void writeTree(int[] parents, String[] labels, int length) {
+        writeVarLong(length);
+        for (int i = 0; i < length; i++) {
+            writeVarLong(parents[i] + 1);
+            writeString(labels[i]);
+        }
+    }
+
+    /**
+     * Writes a sparse counter matrix. Rows and columns are written in the
+     * given order, cells are addressed by their position in it. Only existing
+     * cells are written - for every row the number of cells and then for each
+     * cell the gap since the previous column and its three counters.
+     *
+     * @param matrix   the matrix
+     * @param rowOrder row keys, in order
+     * @param colOrder column keys, in order
+     */
+    public <R, C> void writeMatrix(Matrix<R, C> matrix, List<R> rowOrder, List<C> colOrder) {
+        int[] cols = new int[colOrder.size()];
+        for (int i = 0; i < cols.length; i++) {
+            cols[i] = matrix.getColumn(colOrder.get(i));
+        }
+
+        writeVarLong(rowOrder.size());
+        writeVarLong(cols.length);
+        for (R rowKey : rowOrder) {
+            Matrix<R, C>.Row row = matrix.getRow(rowKey);
+            if (row == null) {
+                writeVarLong(0);
+                continue;
+            }
+
+            int cells = 0;
+            for (int col : cols) {
+                if (row.has(col)) {
+                    cells++;
+                }
+            }
+            writeVarLong(cells);
+
+            int last = -1;
+            for (int i = 0; i < cols.length; i++) {
+                if (row.has(cols[i])) {
+                    writeVarLong(i - last - 1);
+                    writeVarLong(row.getCount(cols[i]));
+                    writeVarLong(row.getTotal(cols[i]));
+                    writeVarLong(row.getIterations(cols[i]));
+                    last = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a concurrent counter matrix in the same layout as
+     * {@link #writeMatrix(Matrix, List, List)}. Cells must not be updated
+     * while writing.
+     *
+     * @param matrix   the matrix
+     * @param rowOrder row keys, in order
+     * @param colOrder column keys, in order
+     */
+    public <R extends Comparable<? super R>, C extends Comparable<? super C>> void writeMatrix(ConcurrentCounterMatrix<R, C> matrix, List<R> rowOrder, List<C> colOrder) {
+        writeVarLong(rowOrder.size());
+        writeVarLong(colOrder.size());
+        long[][] cells = new long[colOrder.size()][];
+        for (R rowKey : rowOrder) {
+            int count = 0;
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = matrix.get(rowKey, colOrder.get(i));
+                if (cells[i] != null) {
+                    count++;
+                }
+            }
+            writeVarLong(count);
+
+            int last = -1;
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] != null) {
+                    writeVarLong(i - last - 1);
+                    writeVarLong(cells[i][0]);
+                    writeVarLong(cells[i][1]);
+                    writeVarLong(cells[i][2]);
+                    last = i;
+                }
+            }
+        }
+    }
+
+    public byte[] toByteArray() {
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,84 @@
+package cz.cuni.mff.d3s.blood.report.format;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compression of dump entries. Every thread reuses its own
+ * {@link Deflater}, so compressing an entry allocates only the output array.
+ * <p>
+ * Configured by system properties {@code blood.compression} ({@code true} or
+ * {@code false}) and {@code blood.compression.level} (0-9, -1 for the zlib
+ * default).
+ */
+public final class Compressor {
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("blood.compression", "true"));
+    private static final int LEVEL = Integer.getInteger("blood.compression.level", Deflater.DEFAULT_COMPRESSION);
+
+    /**
+     * Gzip member header - deflate, no flags, no mtime, unknown OS.
+     */
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int TRAILER_SIZE = 8;
+
+    private static final ThreadLocal<Deflater> deflater = ThreadLocal.withInitial(() -> new Deflater(LEVEL, true));
+    private static final ThreadLocal<CRC32> crc = ThreadLocal.withInitial(CRC32::new);
+
+    /**
+     * Disabling creation of instances of this class.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    private Compressor() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("Cannot instantiate this class");
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Compresses data into a standalone gzip member.
+     *
+     * @param data uncompressed data
+     * @return gzip-compressed data
+     */
+    public static byte[] gzip(byte[] data) {
+        Deflater def = deflater.get();
+        CRC32 checksum = crc.get();
+        def.reset();
+        checksum.reset();
+        checksum.update(data);
+
+        byte[] out = new byte[HEADER.length + data.length / 4 + 64];
+        System.arraycopy(HEADER, 0, out, 0, HEADER.length);
+        int length = HEADER.length;
+
+        def.setInput(data);
+        def.finish();
+        while (!def.finished()) {
+            if (length == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            length += def.deflate(out, length, out.length - length);
+        }
+
+        if (length + TRAILER_SIZE > out.length) {
+            out = Arrays.copyOf(out, length + TRAILER_SIZE);
+        }
+        length = writeIntLE(out, length, (int) checksum.getValue());
+        length = writeIntLE(out, length, data.length);
+
+        return length == out.length ? out : Arrays.copyOf(out, length);
+    }
+
+    private static int writeIntLE(byte[] out, int offset, int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >>> 8);
+        out[offset + 2] = (byte) (value >>> 16);
+        out[offset + 3] = (byte) (value >>> 24);
+        return offset + 4;
+    }
+}
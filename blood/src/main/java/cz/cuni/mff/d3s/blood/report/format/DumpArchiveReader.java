@@ -0,0 +1,226 @@
+package cz.cuni.mff.d3s.blood.report.format;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Random access to the entries of a dump archive written by
+ * {@link DumpArchiveWriter}. The whole index is loaded on opening, entry data
+ * are read on demand.
+ * <p>
+ * This class does not depend on Graal, so it can be used by tools processing
+ * the dumps. Instances are safe for use by multiple threads.
+ */
+public final class DumpArchiveReader implements Closeable {
+
+    private final File runDir;
+    private final List<Entry> entries;
+    private final Map<String, Map<String, Entry>> byEvent;
+    private final HashMap<Integer, FileChannel> segments = new HashMap<>();
+
+    private DumpArchiveReader(File runDir, List<Entry> entries) {
+        this.runDir = runDir;
+        this.entries = Collections.unmodifiableList(entries);
+        this.byEvent = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            byEvent.computeIfAbsent(entry.getId(), id -> new LinkedHashMap<>()).put(entry.getDumpType(), entry);
+        }
+    }
+
+    /**
+     * @param runDir directory of a run
+     * @return true when the run was dumped in archive mode
+     */
+    public static boolean isArchive(File runDir) {
+        return new File(runDir, DumpArchiveWriter.INDEX_FILE_NAME).isFile();
+    }
+
+    /**
+     * Loads the index of an archive. Records truncated by a crash at the end
+     * of the index are ignored.
+     *
+     * @param runDir directory of a run dumped in archive mode
+     * @return the reader
+     * @throws IOException when the index cannot be read
+     */
+    public static DumpArchiveReader open(File runDir) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(new File(runDir, DumpArchiveWriter.INDEX_FILE_NAME)))) {
+            byte[] magic = in.readNBytes(DumpArchiveWriter.INDEX_MAGIC.length);
+            if (!Arrays.equals(magic, DumpArchiveWriter.INDEX_MAGIC)) {
+                throw new IOException("Not a dump archive index");
+            }
+            int version = in.read();
+            if (version != DumpArchiveWriter.INDEX_VERSION) {
+                throw new IOException("Unsupported dump archive version " + version);
+            }
+
+            while (true) {
+                byte[] id = in.readNBytes(8);
+                if (id.length < 8) {
+                    break;
+                }
+                try {
+                    byte[] type = in.readNBytes((int) BinaryDumpReader.readVarLong(in, false));
+                    int segment = (int) BinaryDumpReader.readVarLong(in, false);
+                    long offset = BinaryDumpReader.readVarLong(in, false);
+                    int length = (int) BinaryDumpReader.readVarLong(in, false);
+                    int flags = in.read();
+                    if (flags < 0) {
+                        break;
+                    }
+                    entries.add(new Entry(
+                            String.format("%016x", ByteBuffer.wrap(id).getLong()),
+                            new String(type, StandardCharsets.UTF_8),
+                            segment, offset, length,
+                            (flags & DumpArchiveWriter.FLAG_COMPRESSED) != 0));
+                } catch (EOFException ex) {
+                    break;
+                }
+            }
+        }
+        return new DumpArchiveReader(runDir, entries);
+    }
+
+    /**
+     * @return all entries in the order they were written
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return identifiers of all compilation events in the archive
+     */
+    public Set<String> getIds() {
+        return Collections.unmodifiableSet(byEvent.keySet());
+    }
+
+    /**
+     * @param id identifier of a compilation event
+     * @return entries of the event by their dump type, empty when the event is
+     * not in the archive
+     */
+    public Map<String, Entry> getEntries(String id) {
+        return Collections.unmodifiableMap(byEvent.getOrDefault(id, Collections.emptyMap()));
+    }
+
+    /**
+     * Reads one entry.
+     *
+     * @param id       identifier of a compilation event
+     * @param dumpType type of the entry
+     * @return uncompressed data, or null when there is no such entry
+     * @throws IOException when the data cannot be read
+     */
+    public byte[] read(String id, String dumpType) throws IOException {
+        Entry entry = getEntries(id).get(dumpType);
+        return entry != null ? read(entry) : null;
+    }
+
+    /**
+     * Reads one entry.
+     *
+     * @param entry entry of this archive
+     * @return uncompressed data
+     * @throws IOException when the data cannot be read
+     */
+    public byte[] read(Entry entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+        FileChannel channel = segment(entry.segment);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, entry.offset + buffer.position()) < 0) {
+                throw new EOFException("Truncated archive segment " + DumpArchiveWriter.segmentName(entry.segment));
+            }
+        }
+
+        if (!entry.compressed) {
+            return buffer.array();
+        }
+        try (var gzip = new GZIPInputStream(new ByteArrayInputStream(buffer.array()))) {
+            return gzip.readAllBytes();
+        }
+    }
+
+    private synchronized FileChannel segment(int number) throws IOException {
+        FileChannel channel = segments.get(number);
+        if (channel == null) {
+            channel = new RandomAccessFile(new File(runDir, DumpArchiveWriter.segmentName(number)), "r").getChannel();
+            segments.put(number, channel);
+        }
+        return channel;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (FileChannel channel : segments.values()) {
+            channel.close();
+        }
+        segments.clear();
+    }
+
+    /**
+     * Location of one dump entry in the archive.
+     */
+    public static final class Entry {
+
+        private final String id;
+        private final String dumpType;
+        private final int segment;
+        private final long offset;
+        private final int length;
+        private final boolean compressed;
+
+        private Entry(String id, String dumpType, int segment, long offset, int length, boolean compressed) {
+            this.id = id;
+            this.dumpType = dumpType;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.compressed = compressed;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getDumpType() {
+            return dumpType;
+        }
+
+        public int getSegment() {
+            return segment;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public boolean isCompressed() {
+            return compressed;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package cz.cuni.mff.d3s.blood.report.format;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stores all dump entries of a run in one append-only log, split into
+ * segments of limited size, together with an index.
+ * <p>
+ * Segments are named {@code archive.NNNNNN.log}. Compressed entries are
+ * separate gzip members, so with compression on, a segment is also a valid
+ * gzip file containing all its entries concatenated.
+ * <p>
+ * The index file {@code archive.idx} starts with magic {@code BLDI} and a
+ * version byte, followed by one record per entry: event id (8 bytes, big
+ * endian), dump type (varint length and UTF-8 bytes), segment number, offset
+ * and length (varints) and a flags byte (bit 0 - compressed). Records are
+ * written on {@link #flush()}, after the data of their entries, so every
+ * record in the index points to complete data.
+ *
+ * @see DumpArchiveReader
+ */
+public final class DumpArchiveWriter implements DumpSink {
+
+    public static final long DEFAULT_SEGMENT_SIZE = 256L << 20;
+    static final String INDEX_FILE_NAME = "archive.idx";
+    static final byte[] INDEX_MAGIC = {'B', 'L', 'D', 'I'};
+    static final int INDEX_VERSION = 1;
+    static final int FLAG_COMPRESSED = 1;
+
+    private final File reportDir;
+    private final long segmentSize;
+    private final OutputStream index;
+    /**
+     * Index records of entries not flushed yet.
+     */
+    private final ByteArrayOutputStream pendingIndex = new ByteArrayOutputStream();
+    private OutputStream segment = null;
+    private int segmentNumber = -1;
+    private long segmentOffset = 0;
+
+    public DumpArchiveWriter(File reportDir, long segmentSize) throws IOException {
+        this.reportDir = reportDir;
+        this.segmentSize = segmentSize;
+
+        File indexFile = new File(reportDir, INDEX_FILE_NAME);
+        if (!indexFile.createNewFile()) {
+            throw new IOException("File name is not available: " + indexFile.getPath());
+        }
+        index = new BufferedOutputStream(new FileOutputStream(indexFile));
+        index.write(INDEX_MAGIC);
+        index.write(INDEX_VERSION);
+    }
+
+    static String segmentName(int number) {
+        return String.format("archive.%06d.log", number);
+    }
+
+    @Override
+    public void write(String id, String dumpType, byte[] data, boolean compressed) throws IOException {
+        if (segment == null || (segmentOffset > 0 && segmentOffset + data.length > segmentSize)) {
+            nextSegment();
+        }
+
+        long offset = segmentOffset;
+        segment.write(data);
+        segmentOffset += data.length;
+
+        writeLong(pendingIndex, Long.parseUnsignedLong(id, 16));
+        byte[] type = dumpType.getBytes(StandardCharsets.UTF_8);
+        BinaryDumpWriter.writeVarLong(pendingIndex, type.length);
+        pendingIndex.write(type);
+        BinaryDumpWriter.writeVarLong(pendingIndex, segmentNumber);
+        BinaryDumpWriter.writeVarLong(pendingIndex, offset);
+        BinaryDumpWriter.writeVarLong(pendingIndex, data.length);
+        pendingIndex.write(compressed ? FLAG_COMPRESSED : 0);
+    }
+
+    private void nextSegment() throws IOException {
+        if (segment != null) {
+            segment.close();
+        }
+        segmentNumber++;
+        segmentOffset = 0;
+
+        File segmentFile = new File(reportDir, segmentName(segmentNumber));
+        if (!segmentFile.createNewFile()) {
+            throw new IOException("File name is not available: " + segmentFile.getPath());
+        }
+        segment = new BufferedOutputStream(new FileOutputStream(segmentFile), 1 << 16);
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // data must reach the disk before the index records pointing to them
+        if (segment != null) {
+            segment.flush();
+        }
+        pendingIndex.writeTo(index);
+        pendingIndex.reset();
+        index.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (segment != null) {
+            segment.close();
+        }
+        index.close();
+    }
+}
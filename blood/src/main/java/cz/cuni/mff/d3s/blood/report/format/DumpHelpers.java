@@ -1,4 +1,4 @@
-package cz.cuni.mff.d3s.blood.report;
+package cz.cuni.mff.d3s.blood.report.format;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -7,7 +7,6 @@ import java.io.OutputStream;
 import java.time.format.DateTimeFormatter;
 import java.util.Scanner;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Utility methods for dumping.
@@ -22,7 +21,6 @@ public final class DumpHelpers {
      * Default name of the dumps directory. Relative to PWD. Without trailing slash.
      */
     public static final String DEFAULT_DUMPS_DIR_NAME = "dumps";
-    private static final boolean ENABLE_DUMP_COMPRESSION = true;
     private static File cachedReportDir = null;
 
     /**
@@ -104,8 +102,19 @@ public final class DumpHelpers {
         return cachedReportDir;
     }
 
-    public static final OutputStream createDumpFile(File reportDir, String dumpType, String id) throws IOException {
-        if (ENABLE_DUMP_COMPRESSION)
+    /**
+     * Creates a file for one dump entry.
+     *
+     * @param reportDir  directory of the current run
+     * @param dumpType   type of the entry
+     * @param id         identifier of the compilation event
+     * @param compressed whether the data written to the file are
+     *                   gzip-compressed, adds the {@code .gz} extension
+     * @return stream writing into the new file
+     * @throws IOException when the file cannot be created
+     */
+    public static final OutputStream createDumpFile(File reportDir, String dumpType, String id, boolean compressed) throws IOException {
+        if (compressed)
             dumpType = dumpType + ".gz";
 
         File dumpFile = new File(getReportDir(), id + "." + dumpType);
@@ -115,10 +124,6 @@ public final class DumpHelpers {
             throw new RuntimeException("File name is not available: " + dumpFile.getPath());
         }
 
-        if (ENABLE_DUMP_COMPRESSION) {
-            return new GZIPOutputStream(new FileOutputStream(dumpFile));
-        } else {
-            return new FileOutputStream(dumpFile);
-        }
+        return new FileOutputStream(dumpFile);
     }
 }
@@ -0,0 +1,61 @@
+package cz.cuni.mff.d3s.blood.report.format;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Destination of dump entries. Only used from the dump IO thread.
+ */
+public interface DumpSink extends Closeable {
+
+    /**
+     * Stores one dump entry.
+     *
+     * @param id         identifier of the compilation event
+     * @param dumpType   type of the entry, such as {@code depmat}
+     * @param data       entry data
+     * @param compressed whether the data are a gzip member
+     * @throws IOException when the entry cannot be stored
+     */
+    void write(String id, String dumpType, byte[] data, boolean compressed) throws IOException;
+
+    /**
+     * Makes all entries written so far visible to readers.
+     *
+     * @throws IOException when flushing fails
+     */
+    void flush() throws IOException;
+
+    /**
+     * Creates the sink configured by system properties - a
+     * {@link DumpArchiveWriter} when {@code blood.archive} is {@code true},
+     * one file per entry otherwise.
+     *
+     * @param reportDir directory of the current run
+     * @return the sink
+     * @throws IOException when the sink cannot be created
+     */
+    public static DumpSink create(File reportDir) throws IOException {
+        if (Boolean.getBoolean("blood.archive")) {
+            return new DumpArchiveWriter(reportDir, Long.getLong("blood.archive.segmentsize", DumpArchiveWriter.DEFAULT_SEGMENT_SIZE));
+        }
+
+        return new DumpSink() {
+            @Override
+            public void write(String id, String dumpType, byte[] data, boolean compressed) throws IOException {
+                try (var fos = DumpHelpers.createDumpFile(reportDir, dumpType, id, compressed)) {
+                    fos.write(data);
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
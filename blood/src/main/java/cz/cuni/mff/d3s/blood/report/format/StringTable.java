@@ -0,0 +1,121 @@
+package cz.cuni.mff.d3s.blood.report.format;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Per-run dictionary of strings (mostly class names) referenced from binary
+ * dumps by their index.
+ * <p>
+ * The table is append-only. New strings are written to the end of the table
+ * file by {@link #appendTo(File)}, so the file is always a valid prefix of the
+ * in-memory table.
+ * <p>
+ * File format: magic {@code BLDS}, version byte, then any number of strings,
+ * each as varint length followed by UTF-8 bytes. The index of a string is its
+ * position in the file.
+ */
+public final class StringTable {
+
+    public static final String FILE_NAME = "strings.bin";
+    static final byte[] MAGIC = {'B', 'L', 'D', 'S'};
+    static final int VERSION = 1;
+
+    private final HashMap<String, Integer> ids = new HashMap<>();
+    private final ArrayList<String> strings = new ArrayList<>();
+    /**
+     * Number of strings already written to the table file.
+     */
+    private int written = 0;
+
+    public synchronized int intern(String string) {
+        Integer id = ids.get(string);
+        if (id == null) {
+            id = strings.size();
+            strings.add(string);
+            ids.put(string, id);
+        }
+        return id;
+    }
+
+    public synchronized String get(int id) {
+        return strings.get(id);
+    }
+
+    public synchronized int size() {
+        return strings.size();
+    }
+
+    /**
+     * Writes strings that were not written yet to the end of the table file.
+     *
+     * @param file the table file, created with a header when it does not exist
+     * @throws IOException when writing fails
+     */
+    public synchronized void appendTo(File file) throws IOException {
+        if (written == strings.size() && file.exists()) {
+            return;
+        }
+
+        boolean header = !file.exists() || file.length() == 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file, true))) {
+            if (header) {
+                out.write(MAGIC);
+                out.write(VERSION);
+            }
+            for (; written < strings.size(); written++) {
+                byte[] bytes = strings.get(written).getBytes(StandardCharsets.UTF_8);
+                BinaryDumpWriter.writeVarLong(out, bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Loads a table file.
+     *
+     * @param file the table file
+     * @return table containing all strings of the file
+     * @throws IOException when the file cannot be read or is not a table file
+     */
+    public static StringTable read(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    public static StringTable read(InputStream in) throws IOException {
+        byte[] magic = in.readNBytes(MAGIC.length);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a string table");
+        }
+        int version = in.read();
+        if (version != VERSION) {
+            throw new IOException("Unsupported string table version " + version);
+        }
+
+        StringTable table = new StringTable();
+        while (true) {
+            long length = BinaryDumpReader.readVarLong(in, true);
+            if (length < 0) {
+                break;
+            }
+            byte[] bytes = in.readNBytes((int) length);
+            if (bytes.length != length) {
+                throw new IOException("Truncated string table");
+            }
+            table.intern(new String(bytes, StandardCharsets.UTF_8));
+        }
+        table.written = table.strings.size();
+        return table;
+    }
+}
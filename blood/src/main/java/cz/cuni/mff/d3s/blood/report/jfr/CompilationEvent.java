@@ -0,0 +1,23 @@
+package cz.cuni.mff.d3s.blood.report.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("cz.cuni.mff.d3s.blood.Compilation")
+@Label("Blood Compilation")
+@Category({"Blood"})
+@Description("Compilation collected by blood, from the start of the front end to the end of the back end")
+public class CompilationEvent extends Event {
+
+    @Label("Compilation ID")
+    String compilationId;
+
+    @Label("Method")
+    String method;
+
+    @Label("Phase Runs")
+    int phaseRuns;
+}
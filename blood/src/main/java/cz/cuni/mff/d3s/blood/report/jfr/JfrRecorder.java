@@ -0,0 +1,81 @@
+package cz.cuni.mff.d3s.blood.report.jfr;
+
+import java.util.Arrays;
+
+/**
+ * Emits JDK Flight Recorder events of one compilation. Must only be used
+ * after {@link JfrSupport#initialize()} succeeded. Confined to the compiler
+ * thread.
+ */
+public final class JfrRecorder {
+
+    private CompilationEvent compilation;
+    private String compilationId;
+    private int phaseRuns;
+
+    /**
+     * Events of the phases that are running now, innermost last.
+     */
+    private PhaseEvent[] phases = new PhaseEvent[16];
+    private int depth = 0;
+
+    public void startCompilation(String compilationId, String method) {
+        this.compilationId = compilationId;
+        compilation = new CompilationEvent();
+        compilation.compilationId = compilationId;
+        compilation.method = method;
+        compilation.begin();
+    }
+
+    public void endCompilation() {
+        if (compilation == null) {
+            return;
+        }
+        compilation.end();
+        if (compilation.shouldCommit()) {
+            compilation.phaseRuns = phaseRuns;
+            compilation.commit();
+        }
+        compilation = null;
+    }
+
+    /**
+     * Called before every optimization phase run.
+     *
+     * @param phaseClass class of the phase
+     * @param nodeCount  number of nodes in the graph entering the phase
+     */
+    public void enterPhase(Class<?> phaseClass, int nodeCount) {
+        if (depth == phases.length) {
+            phases = Arrays.copyOf(phases, depth * 2);
+        }
+
+        PhaseEvent event = new PhaseEvent();
+        event.compilationId = compilationId;
+        event.phaseClass = phaseClass;
+        event.depth = depth;
+        event.nodesBefore = nodeCount;
+        phases[depth++] = event;
+        event.begin();
+    }
+
+    /**
+     * Called after every optimization phase run.
+     *
+     * @param nodeCount number of nodes in the graph leaving the phase
+     */
+    public void exitPhase(int nodeCount) {
+        if (depth == 0) {
+            throw new AssertionError("Exiting phase that was not supposed to exit right now!");
+        }
+
+        PhaseEvent event = phases[--depth];
+        phases[depth] = null;
+        event.end();
+        phaseRuns++;
+        if (event.shouldCommit()) {
+            event.nodesAfter = nodeCount;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package cz.cuni.mff.d3s.blood.report.jfr;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Makes JDK Flight Recorder usable from blood. Blood is instrumented into the
+ * Graal compiler module, which does not read {@code jdk.jfr}, so the read edge
+ * must be added before any event class is loaded. This class must therefore
+ * not refer to any {@code jdk.jfr} type itself.
+ */
+public final class JfrSupport {
+
+    private JfrSupport() {
+    }
+
+    /**
+     * @return true when events can be emitted
+     */
+    public static boolean initialize() {
+        try {
+            Module jfr = ModuleLayer.boot().findModule("jdk.jfr")
+                    .orElseThrow(() -> new IllegalStateException("module jdk.jfr is not in the boot layer"));
+            Module self = JfrSupport.class.getModule();
+            // both are no-ops when blood runs from the class path
+            self.addReads(jfr);
+            self.addExports(JfrSupport.class.getPackageName(), jfr);
+            return true;
+        } catch (RuntimeException ex) {
+            Logger.getLogger(JfrSupport.class.getName()).log(Level.WARNING, "JFR events disabled.", ex);
+            return false;
+        }
+    }
+}
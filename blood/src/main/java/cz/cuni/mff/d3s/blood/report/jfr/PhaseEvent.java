@@ -0,0 +1,30 @@
+package cz.cuni.mff.d3s.blood.report.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("cz.cuni.mff.d3s.blood.Phase")
+@Label("Blood Phase")
+@Category({"Blood"})
+@Description("Run of an optimization phase in a compilation collected by blood")
+public class PhaseEvent extends Event {
+
+    @Label("Compilation ID")
+    String compilationId;
+
+    @Label("Phase")
+    Class<?> phaseClass;
+
+    @Label("Stack Depth")
+    @Description("Number of phases running around this one")
+    int depth;
+
+    @Label("Nodes Before")
+    int nodesBefore;
+
+    @Label("Nodes After")
+    int nodesAfter;
+}
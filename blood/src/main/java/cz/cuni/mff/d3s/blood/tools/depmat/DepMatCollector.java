@@ -1,77 +1,194 @@
 package cz.cuni.mff.d3s.blood.tools.depmat;
 
+import cz.cuni.mff.d3s.blood.report.BinaryDump;
+import cz.cuni.mff.d3s.blood.report.format.BinaryDumpWriter;
+import cz.cuni.mff.d3s.blood.report.DumpMap;
+import cz.cuni.mff.d3s.blood.report.GraphScanner;
+import cz.cuni.mff.d3s.blood.report.RunAggregate;
+import cz.cuni.mff.d3s.blood.report.Slot;
 import cz.cuni.mff.d3s.blood.report.TextDump;
 import cz.cuni.mff.d3s.blood.tools.phasestack.PhaseID;
+import cz.cuni.mff.d3s.blood.tools.phasestack.PhaseStackCollector;
+import cz.cuni.mff.d3s.blood.utils.Options;
 import cz.cuni.mff.d3s.blood.utils.matrix.Matrix;
+import org.graalvm.compiler.graph.Graph;
 import org.graalvm.compiler.graph.Node;
 import org.graalvm.compiler.nodes.StructuredGraph;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-public final class DepMatCollector implements TextDump {
+public final class DepMatCollector implements TextDump, BinaryDump, GraphScanner.Consumer, RunAggregate.Contributor {
+    public static final Slot<DepMatCollector> SLOT = Slot.of("depmat", DepMatCollector::new);
+
     private static final NodeTracker nodeTracker = new NodeTracker();
 
+    public static final Mode MODE = Options.getEnum("blood.depmat.mode", Mode.EVENT);
+
     // the default of 16 doesn't fit even the most trivial programs
     private static final int HASHMAP_INIT_CAPACITY = 64;
 
+    private final PhaseStackCollector phaseStack;
+
     private final LinkedHashSet<PhaseID> phaseOrder = new LinkedHashSet<>();
-    private final Matrix<PhaseID, PhaseID, DependencyValue> matrix = new Matrix<>(HASHMAP_INIT_CAPACITY, DependencyValue.ZERO);
+    private final Matrix<PhaseID, PhaseID> matrix = new Matrix<>(HASHMAP_INIT_CAPACITY);
 
     /**
-     * This function is called by the instrumentation before every optimization
-     * phase run. More specifically, before calling
-     * {@link org.graalvm.compiler.phases.BasePhase#apply(StructuredGraph, Object)}
-     *
-     * @param graph       Graph entering the optimization phase
-     * @param sourceClass Class of the optimization phase running
+     * Nodes added to each graph since its last phase exit, waiting to be
+     * tagged with their creation phase. Only used in the event modes. Kept
+     * per graph, so that a phase exit only looks at nodes of its graph, not
+     * at those of graphs that never reach a phase exit (such as snippets).
+     */
+    private final IdentityHashMap<Graph, ArrayList<Node>> pendingNodes = new IdentityHashMap<>();
+    /**
+     * Pending nodes of the graph that got the last node, most nodes are added
+     * to the same graph as the previous one.
      */
-    public void prePhase(StructuredGraph graph, Class<?> sourceClass) {
-        var phaseID = PhaseID.getCurrent();
-        phaseOrder.add(phaseID);
+    private Graph lastGraph = null;
+    private ArrayList<Node> lastPending = null;
+    /**
+     * Graphs that were already fully tagged once. Nodes added before the
+     * first phase exit of a graph might have been added before the
+     * compilation was tracked, so the first exit falls back to a scan.
+     */
+    private final Set<Graph> scannedGraphs = Collections.newSetFromMap(new IdentityHashMap<>());
 
-        // obtain row in result matrix for this particular optimization phase
-        var row = matrix.getOrCreateRow(phaseID);
+    public DepMatCollector(DumpMap context) {
+        phaseStack = context.get(PhaseStackCollector.SLOT);
+    }
 
-        // for each node in the graph entering the phase, note down where it was created
-        for (Node node : graph.getNodes()) {
-            var creationPhaseResult = nodeTracker.getCreationPhase(node);
+    private PhaseID scanPhase;
+    private boolean scanEntry;
+    private Matrix<PhaseID, PhaseID>.Row scanRow;
+    private boolean verifying;
+    private int missed;
 
-            if (creationPhaseResult.isError()) {
-                System.err.println(creationPhaseResult.unwrapError());
-                continue;
-            }
+    /**
+     * Called at every phase boundary of
+     * {@link org.graalvm.compiler.phases.BasePhase#apply(StructuredGraph, Object)}.
+     * On entry, the creation phases of all nodes are counted. On exit, the
+     * nodes created by the phase are tagged.
+     */
+    @Override
+    public boolean beginScan(StructuredGraph graph, boolean entry) {
+        scanPhase = phaseStack.getCurrentPhaseID();
+        scanEntry = entry;
+
+        if (entry) {
+            phaseOrder.add(scanPhase);
 
-            var creationPhaseClass = creationPhaseResult.unwrap();
+            // obtain row in result matrix for this particular optimization phase
+            scanRow = matrix.getOrCreateRow(scanPhase);
+            return true;
+        }
 
-            DependencyValue value = row.getOrCreate(creationPhaseClass);
-            value.incrementNumberOfSeenNodes(1);
+        boolean tagging = MODE == Mode.SCAN || scannedGraphs.add(graph);
+        if (MODE != Mode.SCAN) {
+            tagPendingNodes(graph, scanPhase);
         }
+        verifying = !tagging && MODE == Mode.VERIFY;
+        missed = 0;
+        return tagging || verifying;
+    }
 
-        // update total node counts for all tracked values
-        row.valuesStream().forEach(value -> {
-            value.incrementTotalNumberOfNodesSeen(graph.getNodeCount());
-            value.incrementPhaseCounter();
-        });
+    @Override
+    public void visit(Node node) {
+        if (scanEntry) {
+            // note down where the node entering the phase was created
+            scanRow.increment(nodeTracker.getCreationPhase(node), 1);
+        } else if (nodeTracker.getCreationPhase(node) == PhaseID.NO_PHASE) {
+            // mark nodes without any creation annotation as created in this phase
+            nodeTracker.setCreationPhase(node, scanPhase);
+            if (verifying) {
+                missed++;
+            }
+        }
+    }
+
+    @Override
+    public void endScan(StructuredGraph graph, boolean entry) {
+        if (entry) {
+            // update total node counts for all tracked values
+            scanRow.finishMeasurement(graph.getNodeCount());
+        } else if (missed > 0) {
+            // tagged by the scan anyway, so the output is the same as in the scan mode
+            Logger.getLogger(DepMatCollector.class.getName()).log(Level.WARNING, "{0} nodes missed by creation events in phase {1}",
+                    new Object[]{missed, scanPhase});
+        }
     }
 
     /**
-     * This function is called by the instrumentation after every optimization
-     * phase run. More specifically, after calling
-     * {@link org.graalvm.compiler.phases.BasePhase#apply(StructuredGraph, Object)}
+     * This function is called by the instrumentation after a node is added to
+     * a graph. Used only in the event modes.
      *
-     * @param graph       Graph representing IL after being processed by the
-     *                    optimization phase
-     * @param sourceClass Class of the running optimization phase
+     * @param node the new node
      */
-    public void postPhase(StructuredGraph graph, Class<?> sourceClass) {
-        var phaseID = PhaseID.getCurrent();
-        nodeTracker.updateCreationPhase(graph.getNodes(), phaseID);
+    public void onNodeAdded(Node node) {
+        Graph graph = node.graph();
+        if (graph != lastGraph) {
+            lastGraph = graph;
+            lastPending = pendingNodes.computeIfAbsent(graph, g -> new ArrayList<>());
+        }
+        lastPending.add(node);
+    }
+
+    /**
+     * Tags pending nodes of the graph the same way a full scan would - alive
+     * nodes without a creation phase get the current one - and forgets them.
+     * Deleted nodes are skipped as a scan would never see them.
+     */
+    private void tagPendingNodes(Graph graph, PhaseID phaseID) {
+        ArrayList<Node> pending = pendingNodes.remove(graph);
+        if (graph == lastGraph) {
+            lastGraph = null;
+            lastPending = null;
+        }
+        if (pending == null) {
+            return;
+        }
+        for (Node node : pending) {
+            if (node.isAlive() && nodeTracker.getCreationPhase(node) == PhaseID.NO_PHASE) {
+                nodeTracker.setCreationPhase(node, phaseID);
+            }
+        }
+    }
+
+    /**
+     * How creation phases are assigned to nodes. Selected by the
+     * {@code blood.depmat.mode} system property.
+     */
+    public enum Mode {
+        /**
+         * Walk all nodes of the graph after every phase and tag those without
+         * a creation phase.
+         */
+        SCAN,
+        /**
+         * Remember nodes as they are added and tag only those after a phase.
+         */
+        EVENT,
+        /**
+         * Like {@link #EVENT}, but also walk the graph after every phase and
+         * report nodes the events missed.
+         */
+        VERIFY
+    }
+
+    @Override
+    public void contributeTo(RunAggregate aggregate) {
+        // nodes without a creation phase map to null and are left out, as in the text dump
+        aggregate.getDepMat().addAll(matrix, phaseStack::getStatePath, phaseStack::getStatePath);
     }
 
     @Override
     public String getName() {
-        return "depmat";
+        return SLOT.getName();
     }
 
     @Override
@@ -84,4 +201,17 @@ public final class DepMatCollector implements TextDump {
 
         return header + "\n\n" + data;
     }
+
+    /**
+     * Layout: list of phase state IDs (int list), then the matrix with rows
+     * and columns in that order.
+     */
+    @Override
+    public void writeBinary(BinaryDumpWriter out) {
+        var phases = new ArrayList<>(phaseOrder);
+        int[] ids = phases.stream().mapToInt(PhaseID::getId).toArray();
+
+        out.writeIntList(ids, ids.length);
+        out.writeMatrix(matrix, phases, phases);
+    }
 }
@@ -1,29 +1,68 @@
 package cz.cuni.mff.d3s.blood.tools.depmat;
 
 import cz.cuni.mff.d3s.blood.tools.phasestack.PhaseID;
-import cz.cuni.mff.d3s.blood.utils.Result;
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.graalvm.compiler.graph.Node;
 
 /**
  * Node tracker that does not use the node tracking facilities built into Graal.
+ * <p>
+ * The creation phase of a node is stored in its node info slot. The private
+ * accessors of {@link Node} are resolved once into constant method handles
+ * with the {@code PhaseID.class} key already bound, so a lookup is a direct
+ * call that allocates nothing.
+ * <p>
+ * Failures are logged and never reach the compiler. After the first one, the
+ * tracker stops tracking and every node looks untagged.
  */
-@SuppressWarnings("StaticNonFinalUsedInInitialization")
 public class NodeTracker {
 
-    private static Method getNodeInfo, setNodeInfo;
+    private static final Logger LOGGER = Logger.getLogger(NodeTracker.class.getName());
+
+    /**
+     * {@code (Node) -> Object}, bound {@code node.getNodeInfo(PhaseID.class)};
+     * null when the accessors could not be resolved
+     */
+    private static final MethodHandle GET_CREATION_PHASE;
+    /**
+     * {@code (Node, Object) -> void}, bound
+     * {@code node.setNodeInfo(PhaseID.class, value)}; null when the accessors
+     * could not be resolved
+     */
+    private static final MethodHandle SET_CREATION_PHASE;
+
+    private static volatile boolean failed = false;
 
     static {
+        MethodHandle get = null;
+        MethodHandle set = null;
         try {
-            getNodeInfo = Node.class.getDeclaredMethod("getNodeInfo", Class.class);
-            setNodeInfo = Node.class.getDeclaredMethod("setNodeInfo", Class.class, Object.class);
+            Method getNodeInfo = Node.class.getDeclaredMethod("getNodeInfo", Class.class);
+            Method setNodeInfo = Node.class.getDeclaredMethod("setNodeInfo", Class.class, Object.class);
             getNodeInfo.setAccessible(true);
             setNodeInfo.setAccessible(true);
-        } catch (NoSuchMethodException | SecurityException e) {
-            throw new RuntimeException(e);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            get = MethodHandles.insertArguments(lookup.unreflect(getNodeInfo), 1, PhaseID.class)
+                    .asType(MethodType.methodType(Object.class, Node.class));
+            set = MethodHandles.insertArguments(lookup.unreflect(setNodeInfo), 1, PhaseID.class)
+                    .asType(MethodType.methodType(void.class, Node.class, Object.class));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            fail("Cannot access the node info of Graal nodes", e);
+        }
+        GET_CREATION_PHASE = get;
+        SET_CREATION_PHASE = set;
+    }
+
+    private static void fail(String message, Throwable t) {
+        if (!failed) {
+            failed = true;
+            LOGGER.log(Level.WARNING, message + ", node creation phases are no longer tracked", t);
         }
     }
 
@@ -31,42 +70,31 @@ public class NodeTracker {
      * Get the class of the phase, in which given node was created.
      *
      * @param node the node in question
-     * @return class of the phase, or a dummy, or an error message
+     * @return class of the phase, or {@link PhaseID#NO_PHASE} when the node
+     * has not been tagged yet or the tracker failed
      */
-    public Result<PhaseID, String> getCreationPhase(Node node) {
+    public PhaseID getCreationPhase(Node node) {
+        if (failed) {
+            return PhaseID.NO_PHASE;
+        }
+        Object source;
         try {
-            PhaseID source = (PhaseID) getNodeInfo.invoke(node, PhaseID.class);
-            return Result.success(source != null ? source : PhaseID.NO_PHASE);
-        } catch (IllegalAccessException | InvocationTargetException e) {
-            StringWriter stringWriter = new StringWriter();
-            e.printStackTrace(new PrintWriter(stringWriter));
-            return Result.error("getCreationPhase failed:\n" + stringWriter.toString() + "\n");
+            source = (Object) GET_CREATION_PHASE.invokeExact(node);
+        } catch (Throwable t) {
+            fail("getCreationPhase failed", t);
+            return PhaseID.NO_PHASE;
         }
+        return source != null ? (PhaseID) source : PhaseID.NO_PHASE;
     }
 
     public void setCreationPhase(Node node, PhaseID phaseID) {
-        try {
-            setNodeInfo.invoke(node, PhaseID.class, phaseID);
-        } catch (IllegalAccessException | InvocationTargetException e) {
-            e.printStackTrace();
+        if (failed) {
+            return;
         }
-    }
-
-    /**
-     * Should be called after every phase.
-     *
-     * @param nodes   list of nodes in the graph
-     * @param phaseID id of the phase in question
-     */
-    public void updateCreationPhase(Iterable<Node> nodes, PhaseID phaseID) {
-        // mark all nodes without any creation annotation as created in this phase
-        for (Node node : nodes) {
-            var creationPhase = getCreationPhase(node);
-            if (creationPhase.isError()) {
-                System.err.println(creationPhase.unwrapError());
-            } else if (creationPhase.unwrap() == PhaseID.NO_PHASE) {
-                setCreationPhase(node, phaseID);
-            }
+        try {
+            SET_CREATION_PHASE.invokeExact(node, (Object) phaseID);
+        } catch (Throwable t) {
+            fail("setCreationPhase failed", t);
         }
     }
 }
@@ -0,0 +1,112 @@
+package cz.cuni.mff.d3s.blood.tools.nodechurn;
+
+import cz.cuni.mff.d3s.blood.report.BinaryDump;
+import cz.cuni.mff.d3s.blood.report.format.BinaryDumpWriter;
+import cz.cuni.mff.d3s.blood.report.DumpMap;
+import cz.cuni.mff.d3s.blood.report.Slot;
+import cz.cuni.mff.d3s.blood.report.TextDump;
+import cz.cuni.mff.d3s.blood.tools.phasestack.PhaseStackCollector;
+
+import java.util.Arrays;
+
+/**
+ * Counts graph changes - added and deleted nodes, changed inputs and replaced
+ * usages - and attributes them to the phase stack state in which they
+ * happened.
+ */
+public class NodeChurnCollector implements TextDump, BinaryDump {
+
+    public static final Slot<NodeChurnCollector> SLOT = Slot.of("nodechurn", NodeChurnCollector::new);
+
+    public static final int ADDED = 0;
+    public static final int DELETED = 1;
+    public static final int INPUT_CHANGED = 2;
+    public static final int USAGES_REPLACED = 3;
+    private static final int KINDS = 4;
+
+    private final PhaseStackCollector phaseStack;
+
+    /**
+     * {@link #KINDS} counters per phase stack state, indexed by state ID + 1
+     * so that changes before the first phase have a place too.
+     */
+    private long[] counts = new long[KINDS * 64];
+
+    public NodeChurnCollector(DumpMap context) {
+        phaseStack = context.get(PhaseStackCollector.SLOT);
+    }
+
+    /**
+     * Called by the instrumentation on every graph change.
+     *
+     * @param kind one of {@link #ADDED}, {@link #DELETED},
+     *             {@link #INPUT_CHANGED} and {@link #USAGES_REPLACED}
+     */
+    public void onChange(int kind) {
+        int index = (phaseStack.getStackStateID() + 1) * KINDS + kind;
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index + KINDS, counts.length * 2));
+        }
+        counts[index]++;
+    }
+
+    private boolean hasChanges(int row) {
+        for (int kind = 0; kind < KINDS; kind++) {
+            if (counts[row * KINDS + kind] != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return SLOT.getName();
+    }
+
+    /**
+     * One line per phase stack state with any change: the state ID (-1 before
+     * the first phase), then the number of added nodes, deleted nodes, input
+     * changes and usage replacements.
+     */
+    @Override
+    public String getText() {
+        StringBuilder sb = new StringBuilder();
+        for (int row = 0; row < counts.length / KINDS; row++) {
+            if (!hasChanges(row)) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(row - 1);
+            for (int kind = 0; kind < KINDS; kind++) {
+                sb.append(' ').append(counts[row * KINDS + kind]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Layout: IDs of states with any change, -1 before the first phase (int
+     * list), then for every such state its four counters (varlongs).
+     */
+    @Override
+    public void writeBinary(BinaryDumpWriter out) {
+        int[] states = new int[counts.length / KINDS];
+        int length = 0;
+        for (int row = 0; row < counts.length / KINDS; row++) {
+            if (hasChanges(row)) {
+                states[length++] = row - 1;
+            }
+        }
+
+        out.writeIntList(states, length);
+        for (int i = 0; i < length; i++) {
+            int row = states[i] + 1;
+            for (int kind = 0; kind < KINDS; kind++) {
+                out.writeVarLong(counts[row * KINDS + kind]);
+            }
+        }
+    }
+}
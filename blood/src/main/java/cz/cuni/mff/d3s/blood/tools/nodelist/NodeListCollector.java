@@ -1,29 +1,86 @@
 package cz.cuni.mff.d3s.blood.tools.nodelist;
 
+import cz.cuni.mff.d3s.blood.report.BinaryDump;
+import cz.cuni.mff.d3s.blood.report.format.BinaryDumpWriter;
+import cz.cuni.mff.d3s.blood.report.Slot;
 import cz.cuni.mff.d3s.blood.report.TextDump;
 import org.graalvm.compiler.graph.Node;
 
-import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
-public class NodeListCollector implements TextDump {
-    private final LinkedHashSet<Class> nodeClasses = new LinkedHashSet<>();
+public class NodeListCollector implements TextDump, BinaryDump {
 
-    public void onNodeInstantiation(Class nodeClass) {
+    public static final Slot<NodeListCollector> SLOT = Slot.of("nodelist", context -> new NodeListCollector());
+
+    /**
+     * Small run-wide index of every node class, so that a compilation can
+     * remember the classes it has seen in a bitset.
+     */
+    private static final AtomicInteger classCount = new AtomicInteger();
+    private static final ClassValue<Integer> classIndices = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> clazz) {
+            // if two threads race here, one index is wasted, which is harmless
+            return classCount.getAndIncrement();
+        }
+    };
+
+    /**
+     * Bitset of class indices seen in this compilation.
+     */
+    private long[] seen = new long[(classCount.get() >>> 6) + 1];
+    /**
+     * Classes seen in this compilation, in the order they were first seen.
+     */
+    private final ArrayList<Class<?>> nodeClasses = new ArrayList<>();
+
+    /**
+     * Called on every node construction, so it costs only a bitset lookup.
+     *
+     * @param nodeClass class of the new node
+     * @return true when the class was already seen in this compilation
+     */
+    public boolean hasSeen(Class<?> nodeClass) {
+        int index = classIndices.get(nodeClass);
+        int word = index >>> 6;
+        return word < seen.length && (seen[word] & (1L << index)) != 0;
+    }
+
+    public void onNodeInstantiation(Class<?> nodeClass) {
         if (!Node.class.isAssignableFrom(nodeClass)) {
             throw new UnsupportedOperationException("Classes passed into this method should be only ancestors of class Node");
         }
+        if (hasSeen(nodeClass)) {
+            return;
+        }
 
+        int index = classIndices.get(nodeClass);
+        int word = index >>> 6;
+        if (word >= seen.length) {
+            seen = Arrays.copyOf(seen, Math.max(word + 1, seen.length * 2));
+        }
+        seen[word] |= 1L << index;
         nodeClasses.add(nodeClass);
     }
 
     @Override
     public String getName() {
-        return "nodelist";
+        return SLOT.getName();
     }
 
     @Override
     public String getText() {
         return nodeClasses.stream().map(Class::getName).collect(Collectors.joining("\n"));
     }
+
+    /**
+     * Layout: node class names (string list).
+     */
+    @Override
+    public void writeBinary(BinaryDumpWriter out) {
+        out.writeStringList(nodeClasses.stream().map(Class::getName).collect(Collectors.toList()));
+    }
 }
@@ -1,87 +1,212 @@
 package cz.cuni.mff.d3s.blood.tools.nodemat;
 
+import cz.cuni.mff.d3s.blood.report.BinaryDump;
+import cz.cuni.mff.d3s.blood.report.format.BinaryDumpWriter;
+import cz.cuni.mff.d3s.blood.report.DumpMap;
+import cz.cuni.mff.d3s.blood.report.GraphScanner;
+import cz.cuni.mff.d3s.blood.report.RunAggregate;
+import cz.cuni.mff.d3s.blood.report.Slot;
 import cz.cuni.mff.d3s.blood.report.TextDump;
 import cz.cuni.mff.d3s.blood.tools.phasestack.PhaseID;
+import cz.cuni.mff.d3s.blood.tools.phasestack.PhaseStackCollector;
+import cz.cuni.mff.d3s.blood.utils.Options;
 import cz.cuni.mff.d3s.blood.utils.matrix.Matrix;
+import org.graalvm.compiler.graph.Graph;
 import org.graalvm.compiler.graph.Node;
 import org.graalvm.compiler.nodes.StructuredGraph;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
-import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-public class NodeMatCollector implements TextDump {
+public class NodeMatCollector implements TextDump, BinaryDump, GraphScanner.Consumer, RunAggregate.Contributor {
+    public static final Slot<NodeMatCollector> SLOT = Slot.of("nodemat", NodeMatCollector::new);
+
     // the default of 16 doesn't fit even the most trivial programs
     private static final int HASHMAP_INIT_CAPACITY = 64;
 
-    private final Matrix<PhaseID, Class, NodeTrackerValue> preMatrix = new Matrix<>(HASHMAP_INIT_CAPACITY, NodeTrackerValue.ZERO);
-    private final Matrix<PhaseID, Class, NodeTrackerValue> postMatrix = new Matrix<>(HASHMAP_INIT_CAPACITY, NodeTrackerValue.ZERO);
+    public static final Mode MODE = Options.getEnum("blood.nodemat.mode", Mode.SCAN);
 
-    private final LinkedHashSet<Class> nodeClasses = new LinkedHashSet<>();
-    private final LinkedHashSet<PhaseID> phases = new LinkedHashSet<>();
+    private final PhaseStackCollector phaseStack;
+
+    private final Matrix<PhaseID, Class> preMatrix = new Matrix<>(HASHMAP_INIT_CAPACITY);
+    private final Matrix<PhaseID, Class> postMatrix = new Matrix<>(HASHMAP_INIT_CAPACITY);
 
+    private final LinkedHashSet<PhaseID> phases = new LinkedHashSet<>();
 
     /**
-     * This function is called by the instrumentation before every optimization
-     * phase run. More specifically, before calling
-     * {@link org.graalvm.compiler.phases.BasePhase#apply(StructuredGraph, Object)}
-     *
-     * @param graph       Graph entering the optimization phase
-     * @param sourceClass Class of the optimization phase running
+     * Live node counts of graphs seen at a phase boundary, indexed by
+     * {@link #classIndices}. Only used in the incremental modes.
      */
-    public void prePhase(StructuredGraph graph, Class<?> sourceClass) {
-        update(graph, preMatrix);
+    private final IdentityHashMap<Graph, long[]> liveCounts = new IdentityHashMap<>();
+    private final HashMap<Class<?>, Integer> classIndices = new HashMap<>();
+    private final ArrayList<Class<?>> indexedClasses = new ArrayList<>();
+
+
+    public NodeMatCollector(DumpMap context) {
+        phaseStack = context.get(PhaseStackCollector.SLOT);
     }
 
+    private Matrix<PhaseID, Class> scanMatrix;
+    private Matrix<PhaseID, Class>.Row scanRow;
     /**
-     * This function is called by the instrumentation after every optimization
-     * phase run. More specifically, after calling
-     * {@link org.graalvm.compiler.phases.BasePhase#apply(StructuredGraph, Object)}
-     *
-     * @param graph       Graph representing IL after being processed by the
-     *                    optimization phase
-     * @param sourceClass Class of the running optimization phase
+     * Counts being built by the current walk in the incremental modes.
+     */
+    private long[] scanCounts;
+
+    /**
+     * Called at every phase boundary of
+     * {@link org.graalvm.compiler.phases.BasePhase#apply(StructuredGraph, Object)}.
+     * Counts the nodes of the graph entering the phase into the entry matrix
+     * and those leaving it into the exit matrix.
      */
-    public void postPhase(StructuredGraph graph, Class<?> sourceClass) {
-        update(graph, postMatrix);
+    @Override
+    public boolean beginScan(StructuredGraph graph, boolean entry) {
+        PhaseID phaseID = phaseStack.getCurrentPhaseID();
+        phases.add(phaseID);
+        scanMatrix = entry ? preMatrix : postMatrix;
+        scanRow = scanMatrix.getOrCreateRow(phaseID);
+
+        if (MODE == Mode.SCAN) {
+            return true;
+        }
+        // the first time we see the graph its counts are initialized by a walk,
+        // from then on it's tracked by events
+        if (MODE == Mode.CHECK || !liveCounts.containsKey(graph)) {
+            scanCounts = new long[indexedClasses.size() + 16];
+            return true;
+        }
+        scanCounts = null;
+        return false;
     }
 
-    private void update(StructuredGraph graph, Matrix<PhaseID, Class, NodeTrackerValue> matrix) {
-        phases.add(PhaseID.getCurrent());
+    @Override
+    public void visit(Node node) {
+        if (MODE == Mode.SCAN) {
+            scanRow.incrementColumn(scanMatrix.getOrCreateColumn(node.getClass()), 1);
+            return;
+        }
 
-        updateRow(graph, matrix.getOrCreateRow(PhaseID.getCurrent()));
+        int index = classIndex(node.getClass());
+        if (index >= scanCounts.length) {
+            scanCounts = Arrays.copyOf(scanCounts, Math.max(index + 1, scanCounts.length * 2));
+        }
+        scanCounts[index]++;
     }
 
-    private void updateRow(StructuredGraph graph, Matrix<PhaseID, Class, NodeTrackerValue>.Row row) {
-        HashMap<Class, Long> nodeCount = new HashMap<>();
-        for (Node n : graph.getNodes()) {
-            Long count = nodeCount.getOrDefault(n.getClass(), 0l);
-            count++;
-            nodeCount.put(n.getClass(), count);
+    @Override
+    public void endScan(StructuredGraph graph, boolean entry) {
+        if (MODE != Mode.SCAN) {
+            if (scanCounts != null) {
+                long[] live = liveCounts.put(graph, scanCounts);
+                if (live != null && !sameCounts(live, scanCounts)) {
+                    Logger.getLogger(NodeMatCollector.class.getName()).log(Level.WARNING,
+                            "Incremental node counts differ from a full scan in phase {0}", phaseStack.getCurrentPhaseID());
+                }
+            }
+
+            long[] counts = liveCounts.get(graph);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    scanRow.incrementColumn(scanMatrix.getOrCreateColumn(indexedClasses.get(i)), counts[i]);
+                }
+            }
         }
 
-        for (Map.Entry<Class, Long> classLongEntry : nodeCount.entrySet()) {
-            Class nodeClass = classLongEntry.getKey();
+        scanRow.finishMeasurement(graph.getNodeCount());
+    }
+
+    /**
+     * This function is called by the instrumentation after a node is added to
+     * a graph. Used only in the incremental modes.
+     *
+     * @param graph the graph
+     * @param node  the new node
+     */
+    public void onNodeAdded(Graph graph, Node node) {
+        long[] counts = liveCounts.get(graph);
+        if (counts != null) {
+            int index = classIndex(node.getClass());
+            if (index >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length * 2));
+                liveCounts.put(graph, counts);
+            }
+            counts[index]++;
+        }
+    }
 
-            nodeClasses.add(nodeClass);
+    /**
+     * This function is called by the instrumentation before a node is removed
+     * from a graph. Used only in the incremental modes.
+     *
+     * @param graph the graph
+     * @param node  the node being removed
+     */
+    public void onNodeRemoved(Graph graph, Node node) {
+        long[] counts = liveCounts.get(graph);
+        if (counts != null) {
+            // the class was indexed when the node was counted
+            counts[classIndex(node.getClass())]--;
+        }
+    }
 
-            row.getOrCreate(nodeClass)
-                    .incrementNumberOfSeenNodes(classLongEntry.getValue());
+    private int classIndex(Class<?> nodeClass) {
+        Integer index = classIndices.get(nodeClass);
+        if (index == null) {
+            index = indexedClasses.size();
+            indexedClasses.add(nodeClass);
+            classIndices.put(nodeClass, index);
         }
+        return index;
+    }
+
+    private static boolean sameCounts(long[] a, long[] b) {
+        int length = Math.max(a.length, b.length);
+        return Arrays.equals(Arrays.copyOf(a, length), Arrays.copyOf(b, length));
+    }
 
-        final long totalCount = graph.getNodeCount();
-        row.valuesStream().forEach(nodeTrackerValue -> nodeTrackerValue.incrementTotalNumberOfNodesSeen(totalCount));
-        row.valuesStream().forEach(NodeTrackerValue::incrementPhaseCounter);
+    /**
+     * How node classes are counted at phase boundaries. Selected by the
+     * {@code blood.nodemat.mode} system property.
+     */
+    public enum Mode {
+        /**
+         * Walk all nodes of the graph at every phase boundary.
+         */
+        SCAN,
+        /**
+         * Walk the graph only when it is seen for the first time, then keep
+         * the counts up to date from node added and removed events.
+         */
+        INCREMENTAL,
+        /**
+         * Like {@link #INCREMENTAL}, but also walk the graph and report any
+         * difference on the standard error output.
+         */
+        CHECK
+    }
+
+    @Override
+    public void contributeTo(RunAggregate aggregate) {
+        aggregate.getNodeMatEntry().addAll(preMatrix, phaseStack::getStatePath, Class::getName);
+        aggregate.getNodeMatExit().addAll(postMatrix, phaseStack::getStatePath, Class::getName);
     }
 
     @Override
     public String getName() {
-        return "nodemat";
+        return SLOT.getName();
     }
 
     @Override
     public String getText() {
+        LinkedHashSet<Class> nodeClasses = new LinkedHashSet<>(preMatrix.colKeys());
+        nodeClasses.addAll(postMatrix.colKeys());
+
         String nodeClassesStr = nodeClasses.stream()
                 .map(Class::getName)
                 .collect(Collectors.joining("\n"));
@@ -96,4 +221,23 @@ public class NodeMatCollector implements TextDump {
 
         return nodeClassesStr + "\n\n" + phaseClassesStr + "\n\n" + prePhaseStr + "\n\n" + postPhaseStr;
     }
+
+    /**
+     * Layout: node class names (string list), phase state IDs (int list),
+     * entry matrix and exit matrix, both with rows and columns in the order of
+     * the lists.
+     */
+    @Override
+    public void writeBinary(BinaryDumpWriter out) {
+        LinkedHashSet<Class> nodeClassSet = new LinkedHashSet<>(preMatrix.colKeys());
+        nodeClassSet.addAll(postMatrix.colKeys());
+        var nodeClasses = new ArrayList<Class>(nodeClassSet);
+        var phaseList = new ArrayList<>(phases);
+        int[] ids = phaseList.stream().mapToInt(PhaseID::getId).toArray();
+
+        out.writeStringList(nodeClasses.stream().map(Class::getName).collect(Collectors.toList()));
+        out.writeIntList(ids, ids.length);
+        out.writeMatrix(preMatrix, phaseList, nodeClasses);
+        out.writeMatrix(postMatrix, phaseList, nodeClasses);
+    }
 }
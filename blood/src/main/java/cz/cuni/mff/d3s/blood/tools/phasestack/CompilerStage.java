@@ -0,0 +1,56 @@
+package cz.cuni.mff.d3s.blood.tools.phasestack;
+
+/**
+ * Parts of a compilation that are not phases. They are pushed to the phase
+ * stack like phases, so that everything the compiler does happens under some
+ * frame and the top-level frames add up to the whole compilation. The classes
+ * only serve as labels.
+ * <p>
+ * Stages are pushed only when the {@code blood.phasestack.stages} system
+ * property is {@code true}. They add a frame to the bottom of every phase
+ * path, so dumps with and without them do not merge.
+ */
+public final class CompilerStage {
+
+    public static final boolean ENABLED = Boolean.getBoolean("blood.phasestack.stages");
+
+    private CompilerStage() {
+    }
+
+    /**
+     * {@code GraalCompiler.emitFrontEnd} - building and optimizing the graph.
+     */
+    public static final class FrontEnd {
+
+        private FrontEnd() {
+        }
+    }
+
+    /**
+     * {@code GraalCompiler.emitBackEnd} - everything after the front end.
+     */
+    public static final class BackEnd {
+
+        private BackEnd() {
+        }
+    }
+
+    /**
+     * {@code GraalCompiler.emitLIR} - LIR generation, register allocation and
+     * the other LIR phases.
+     */
+    public static final class LIRGeneration {
+
+        private LIRGeneration() {
+        }
+    }
+
+    /**
+     * {@code GraalCompiler.emitCode} - emitting machine code from the LIR.
+     */
+    public static final class CodeEmission {
+
+        private CodeEmission() {
+        }
+    }
+}
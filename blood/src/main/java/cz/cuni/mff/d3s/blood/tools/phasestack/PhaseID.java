@@ -7,11 +7,17 @@ public class PhaseID {
     public static final PhaseID NO_PHASE = new PhaseID(-2);
     private final int id;
 
+    /**
+     * Collectors should rather keep their {@link PhaseStackCollector} and ask
+     * it directly, this goes through the thread-local context.
+     *
+     * @return ID of the current phase stack state
+     */
     public static PhaseID getCurrent() {
-        return new PhaseID(Manager.get(PhaseStackCollector.class).getStackStateID());
+        return Manager.getContext().get(PhaseStackCollector.SLOT).getCurrentPhaseID();
     }
 
-    private PhaseID(int id) {
+    PhaseID(int id) {
         this.id = id;
     }
 
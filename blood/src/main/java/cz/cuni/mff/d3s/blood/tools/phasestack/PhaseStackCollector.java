@@ -1,62 +1,190 @@
 package cz.cuni.mff.d3s.blood.tools.phasestack;
 
+import cz.cuni.mff.d3s.blood.report.BinaryDump;
+import cz.cuni.mff.d3s.blood.report.format.BinaryDumpWriter;
+import cz.cuni.mff.d3s.blood.report.Slot;
 import cz.cuni.mff.d3s.blood.report.TextDump;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 
-public class PhaseStackCollector implements TextDump {
+public class PhaseStackCollector implements TextDump, BinaryDump {
 
-    private final Deque<Class> stack = new ArrayDeque<>();
-    private final List<String> states = new LinkedList<>();
+    public static final Slot<PhaseStackCollector> SLOT = Slot.of("phasestack", context -> new PhaseStackCollector());
+
+    /**
+     * Frame representing the empty stack.
+     */
+    private final Frame root = new Frame(null, null);
+    /**
+     * Top of the current stack.
+     */
+    private Frame current = root;
+    /**
+     * Top of the stack for every recorded state, indexed by stack state ID.
+     */
+    private Frame[] states = new Frame[64];
     /**
      * stackStateID will always correspond to the index to
-     * {@link PhaseStackCollector#states}, under which the representation of current
-     * state of {@link PhaseStackCollector#stack} will once be accessible.
+     * {@link PhaseStackCollector#states}, under which the current state of the
+     * stack is recorded.
      */
     private int stackStateID = -1;
+    private PhaseID currentPhaseID = new PhaseID(stackStateID);
 
     public int getStackStateID() {
         return stackStateID;
     }
 
-    public void push(Class<?> phaseClass) {
-        stackStateID++;
-
-        stack.addLast(phaseClass);
+    /**
+     * @return ID of the current stack state, the same instance until the stack
+     * changes
+     */
+    public PhaseID getCurrentPhaseID() {
+        return currentPhaseID;
+    }
 
-        // update dump
-        states.add(currentStateToString());
+    public void push(Class<?> phaseClass) {
+        current = current.child(phaseClass);
+        record();
     }
 
     public void pop(Class<?> phaseClass) {
-        stackStateID++;
-
-        var out = stack.pollLast();
-
         // sanity check
-        if (out != phaseClass) {
+        if (current.phaseClass != phaseClass) {
             throw new AssertionError("Exiting phase that was not supposed to exit right now!");
         }
 
-        // update dump
-        states.add(currentStateToString());
+        current = current.parent;
+        record();
+    }
+
+    private void record() {
+        stackStateID++;
+        if (stackStateID == states.length) {
+            states = Arrays.copyOf(states, states.length * 2);
+        }
+        states[stackStateID] = current;
+        currentPhaseID = new PhaseID(stackStateID);
+    }
+
+    /**
+     * @param phaseID a state recorded by this collector
+     * @return space-separated class names of the phases on the stack in that
+     * state, or null when the state is not known
+     */
+    public String getStatePath(PhaseID phaseID) {
+        return getStatePath(phaseID.getId());
+    }
+
+    /**
+     * @param stackStateID a state recorded by this collector
+     * @return space-separated class names of the phases on the stack in that
+     * state, or null when the state is not known
+     */
+    public String getStatePath(int stackStateID) {
+        return stackStateID >= 0 && stackStateID <= this.stackStateID ? states[stackStateID].toString() : null;
     }
 
     public String currentStateToString() {
-        return stack.stream().map(aClass -> aClass.getName()).collect(Collectors.joining(" "));
+        return current.toString();
     }
 
     @Override
     public String getName() {
-        return "phasestack";
+        return SLOT.getName();
     }
 
     @Override
     public String getText() {
-        return String.join("\n", states);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= stackStateID; i++) {
+            if (i > 0) {
+                sb.append('\n');
+            }
+            sb.append(states[i].toString());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Layout: tree of phase classes (tree), then for every state the index of
+     * its top frame in the tree, or -1 for the empty stack (int list).
+     */
+    @Override
+    public void writeBinary(BinaryDumpWriter out) {
+        IdentityHashMap<Frame, Integer> indices = new IdentityHashMap<>();
+        indices.put(root, -1);
+        int[] parents = new int[stackStateID + 1];
+        String[] labels = new String[stackStateID + 1];
+        int[] stateFrames = new int[stackStateID + 1];
+
+        for (int i = 0; i <= stackStateID; i++) {
+            stateFrames[i] = indexOf(states[i], indices, parents, labels);
+        }
+
+        out.writeTree(parents, labels, indices.size() - 1);
+        out.writeIntList(stateFrames, stackStateID + 1);
+    }
+
+    private static int indexOf(Frame frame, IdentityHashMap<Frame, Integer> indices, int[] parents, String[] labels) {
+        Integer index = indices.get(frame);
+        if (index == null) {
+            int parent = indexOf(frame.parent, indices, parents, labels);
+            // root is in the map too, so the next free index is size - 1
+            index = indices.size() - 1;
+            indices.put(frame, index);
+            parents[index] = parent;
+            labels[index] = frame.phaseClass.getName();
+        }
+        return index;
+    }
+
+    /**
+     * One frame of the phase stack. Frames are interned - the same sequence of
+     * phases always leads to the same frame, so recording a state costs one
+     * reference.
+     */
+    private static final class Frame {
+
+        private final Class<?> phaseClass;
+        private final Frame parent;
+        private HashMap<Class<?>, Frame> children = null;
+        /**
+         * Space-joined class names of the whole stack, created lazily.
+         */
+        private String text = null;
+
+        private Frame(Class<?> phaseClass, Frame parent) {
+            this.phaseClass = phaseClass;
+            this.parent = parent;
+        }
+
+        private Frame child(Class<?> phaseClass) {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            Frame child = children.get(phaseClass);
+            if (child == null) {
+                child = new Frame(phaseClass, this);
+                children.put(phaseClass, child);
+            }
+            return child;
+        }
+
+        @Override
+        public String toString() {
+            if (text == null) {
+                if (parent == null) {
+                    text = "";
+                } else if (parent.parent == null) {
+                    text = phaseClass.getName();
+                } else {
+                    text = parent.toString() + " " + phaseClass.getName();
+                }
+            }
+            return text;
+        }
     }
 }
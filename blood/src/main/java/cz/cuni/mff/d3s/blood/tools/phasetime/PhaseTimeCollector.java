@@ -0,0 +1,258 @@
+package cz.cuni.mff.d3s.blood.tools.phasetime;
+
+import cz.cuni.mff.d3s.blood.report.BinaryDump;
+import cz.cuni.mff.d3s.blood.report.format.BinaryDumpWriter;
+import cz.cuni.mff.d3s.blood.report.DumpMap;
+import cz.cuni.mff.d3s.blood.report.HeavyHitters;
+import cz.cuni.mff.d3s.blood.report.Slot;
+import cz.cuni.mff.d3s.blood.report.TextDump;
+import cz.cuni.mff.d3s.blood.tools.phasestack.PhaseStackCollector;
+import org.graalvm.compiler.core.common.cfg.AbstractBlockBase;
+import org.graalvm.compiler.lir.LIR;
+import org.graalvm.compiler.lir.LIRInstruction;
+import org.graalvm.compiler.lir.gen.LIRGenerationResult;
+import org.graalvm.compiler.nodes.StructuredGraph;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Measures wall time, thread CPU time and bytes allocated by the compiler
+ * thread for every phase run, including LIR phases and compiler stages. After
+ * LIR phases, it also counts LIR instructions. Measurements are inclusive - a
+ * phase includes the phases it runs.
+ * <p>
+ * Every run is also added to the top-K summaries of the run when the
+ * compilation is finished, see {@link HeavyHitters}.
+ */
+public class PhaseTimeCollector implements TextDump, BinaryDump, HeavyHitters.Contributor {
+
+    public static final Slot<PhaseTimeCollector> SLOT = Slot.of("phasetime", PhaseTimeCollector::new);
+
+    /**
+     * Stored instead of a measurement the JVM does not support.
+     */
+    private static final long UNSUPPORTED = -1;
+    /**
+     * Stored instead of the LIR instruction count for runs that are not LIR
+     * phases.
+     */
+    private static final long NOT_LIR = -1;
+
+    private static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+    private static final boolean ALLOCATION = threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled();
+
+    private final PhaseStackCollector phaseStack;
+
+    /**
+     * Phases that are running now, innermost last.
+     */
+    private int running = 0;
+    private long[] startWall = new long[16];
+    private long[] startCpu = new long[16];
+    private long[] startAllocated = new long[16];
+    private int[] startStates = new int[16];
+
+    /**
+     * Finished phase runs, in the order they finished.
+     */
+    private int finished = 0;
+    private int[] states = new int[64];
+    private long[] wall = new long[64];
+    private long[] cpu = new long[64];
+    private long[] allocated = new long[64];
+    private long[] lirInstructions = new long[64];
+    /**
+     * Number of nodes of the graph at the exit, -1 for runs without a graph.
+     */
+    private int[] nodes = new int[64];
+
+    public PhaseTimeCollector(DumpMap context) {
+        phaseStack = context.get(PhaseStackCollector.SLOT);
+    }
+
+    /**
+     * This function is called by the instrumentation before every phase, LIR
+     * phase and compiler stage run, after it was pushed to the phase stack.
+     */
+    public void prePhase() {
+        if (running == startStates.length) {
+            int length = running * 2;
+            startWall = Arrays.copyOf(startWall, length);
+            startCpu = Arrays.copyOf(startCpu, length);
+            startAllocated = Arrays.copyOf(startAllocated, length);
+            startStates = Arrays.copyOf(startStates, length);
+        }
+
+        startStates[running] = phaseStack.getStackStateID();
+        startAllocated[running] = allocatedBytes();
+        startCpu[running] = cpuTime();
+        // wall time last and first below, so that it includes the least of our own work
+        startWall[running] = System.nanoTime();
+        running++;
+    }
+
+    /**
+     * This function is called by the instrumentation after every compiler
+     * stage run, before it is popped from the phase stack.
+     */
+    public void postPhase() {
+        long wallEnd = System.nanoTime();
+        long cpuEnd = cpuTime();
+        long allocatedEnd = allocatedBytes();
+
+        record(wallEnd, cpuEnd, allocatedEnd, NOT_LIR, -1);
+    }
+
+    /**
+     * This function is called by the instrumentation after every phase run,
+     * before it is popped from the phase stack.
+     *
+     * @param graph the graph the phase worked on
+     */
+    public void postPhase(StructuredGraph graph) {
+        long wallEnd = System.nanoTime();
+        long cpuEnd = cpuTime();
+        long allocatedEnd = allocatedBytes();
+
+        record(wallEnd, cpuEnd, allocatedEnd, NOT_LIR, graph.getNodeCount());
+    }
+
+    /**
+     * This function is called by the instrumentation after every LIR phase
+     * run, before the phase is popped from the phase stack.
+     *
+     * @param lirGenRes the LIR the phase worked on
+     */
+    public void postLIRPhase(LIRGenerationResult lirGenRes) {
+        long wallEnd = System.nanoTime();
+        long cpuEnd = cpuTime();
+        long allocatedEnd = allocatedBytes();
+
+        record(wallEnd, cpuEnd, allocatedEnd, NOT_LIR, -1);
+
+        // counted after the measurement, so that it is not included, and excluded from the enclosing runs too
+        lirInstructions[finished - 1] = countInstructions(lirGenRes.getLIR());
+        long wallCounting = System.nanoTime() - wallEnd;
+        long cpuCounting = cpuTime() - cpuEnd;
+        long allocatedCounting = allocatedBytes() - allocatedEnd;
+        for (int i = 0; i < running; i++) {
+            startWall[i] += wallCounting;
+            startCpu[i] += cpuCounting;
+            startAllocated[i] += allocatedCounting;
+        }
+    }
+
+    private static long countInstructions(LIR lir) {
+        if (lir == null) {
+            return NOT_LIR;
+        }
+        long count = 0;
+        for (AbstractBlockBase<?> block : lir.getControlFlowGraph().getBlocks()) {
+            List<LIRInstruction> instructions = lir.getLIRforBlock(block);
+            if (instructions != null) {
+                count += instructions.size();
+            }
+        }
+        return count;
+    }
+
+    private void record(long wallEnd, long cpuEnd, long allocatedEnd, long lirCount, int graphNodes) {
+        if (running == 0) {
+            throw new AssertionError("Exiting phase that was not supposed to exit right now!");
+        }
+        running--;
+
+        if (finished == states.length) {
+            int length = finished * 2;
+            states = Arrays.copyOf(states, length);
+            wall = Arrays.copyOf(wall, length);
+            cpu = Arrays.copyOf(cpu, length);
+            allocated = Arrays.copyOf(allocated, length);
+            lirInstructions = Arrays.copyOf(lirInstructions, length);
+            nodes = Arrays.copyOf(nodes, length);
+        }
+
+        states[finished] = startStates[running];
+        wall[finished] = wallEnd - startWall[running];
+        cpu[finished] = CPU_TIME ? cpuEnd - startCpu[running] : UNSUPPORTED;
+        allocated[finished] = ALLOCATION ? allocatedEnd - startAllocated[running] : UNSUPPORTED;
+        lirInstructions[finished] = lirCount;
+        nodes[finished] = graphNodes;
+        finished++;
+    }
+
+    /**
+     * Sums the runs by phase path, so that the summaries are updated once per
+     * compilation.
+     */
+    @Override
+    public void contributeTo(HeavyHitters heavyHitters) {
+        var pathNanos = new HashMap<String, Long>();
+        var pathNodes = new HashMap<String, Long>();
+        for (int i = 0; i < finished; i++) {
+            // the state in which the run started has the run on top of the stack
+            String path = phaseStack.getStatePath(states[i]);
+            pathNanos.merge(path, wall[i], Long::sum);
+            if (nodes[i] >= 0) {
+                pathNodes.merge(path, (long) nodes[i], Long::sum);
+            }
+        }
+        heavyHitters.addPhases(pathNanos, pathNodes);
+    }
+
+    private static long cpuTime() {
+        return CPU_TIME ? threads.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long allocatedBytes() {
+        return ALLOCATION ? threads.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    @Override
+    public String getName() {
+        return SLOT.getName();
+    }
+
+    /**
+     * One line per phase run, in the order the runs finished: the phase stack
+     * state ID of the run, wall time and CPU time in nanoseconds, allocated
+     * bytes and the number of LIR instructions after the run. Measurements the
+     * JVM does not support and instruction counts of runs that are not LIR
+     * phases are {@code -1}.
+     */
+    @Override
+    public String getText() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < finished; i++) {
+            if (i > 0) {
+                sb.append('\n');
+            }
+            sb.append(states[i]).append(' ')
+                    .append(wall[i]).append(' ')
+                    .append(cpu[i]).append(' ')
+                    .append(allocated[i]).append(' ')
+                    .append(lirInstructions[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Layout: phase stack state IDs of the runs (int list), then for every
+     * run its wall time (varlong) and CPU time, allocated bytes and LIR
+     * instructions (signed varlongs, so that {@code -1} stays small).
+     */
+    @Override
+    public void writeBinary(BinaryDumpWriter out) {
+        out.writeIntList(states, finished);
+        for (int i = 0; i < finished; i++) {
+            out.writeVarLong(wall[i]);
+            out.writeSignedVarLong(cpu[i]);
+            out.writeSignedVarLong(allocated[i]);
+            out.writeSignedVarLong(lirInstructions[i]);
+        }
+    }
+}
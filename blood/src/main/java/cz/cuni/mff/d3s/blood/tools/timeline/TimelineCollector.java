@@ -0,0 +1,134 @@
+package cz.cuni.mff.d3s.blood.tools.timeline;
+
+import cz.cuni.mff.d3s.blood.report.Manager;
+import cz.cuni.mff.d3s.blood.report.RunTimeline;
+import cz.cuni.mff.d3s.blood.report.Slot;
+import cz.cuni.mff.d3s.blood.report.TextDump;
+
+import java.util.Arrays;
+
+/**
+ * Records {@link System#nanoTime()} at the beginning and end of the
+ * compilation and of every phase run. Finished compilations are added to the
+ * {@link RunTimeline} of the run, the dump of a single compilation is its own
+ * trace in the same format.
+ */
+public final class TimelineCollector implements TextDump, RunTimeline.Source {
+
+    public static final Slot<TimelineCollector> SLOT = Slot.of("timeline", context -> new TimelineCollector());
+
+    private final long threadId = Thread.currentThread().getId();
+    private final String threadName = Thread.currentThread().getName();
+
+    private String compilationId;
+    private String method;
+    private long compilationStart;
+    private long compilationEnd;
+
+    /**
+     * Phases that are running now, innermost last.
+     */
+    private int running = 0;
+    private Class<?>[] startClasses = new Class<?>[16];
+    private long[] startTimes = new long[16];
+
+    /**
+     * Finished phase runs, in the order they finished.
+     */
+    private int finished = 0;
+    private Class<?>[] classes = new Class<?>[64];
+    private long[] starts = new long[64];
+    private long[] ends = new long[64];
+
+    /**
+     * This function is called by the instrumentation at the beginning of the
+     * compilation.
+     *
+     * @param compilationId identifier of the compilation
+     * @param method        signature of the compiled method
+     * @param time          {@link System#nanoTime()} when the compilation
+     *                      started
+     */
+    public void beginCompilation(String compilationId, String method, long time) {
+        this.compilationId = compilationId;
+        this.method = method;
+        compilationStart = time;
+    }
+
+    /**
+     * This function is called by the instrumentation at the end of the
+     * compilation, before its end is marked.
+     *
+     * @param time {@link System#nanoTime()} when the compilation ended
+     */
+    public void endCompilation(long time) {
+        compilationEnd = time;
+        Manager.getTimeline().add(this);
+    }
+
+    /**
+     * This function is called by the instrumentation before every optimization
+     * phase run.
+     */
+    public void prePhase(Class<?> phaseClass, long time) {
+        if (running == startTimes.length) {
+            startClasses = Arrays.copyOf(startClasses, running * 2);
+            startTimes = Arrays.copyOf(startTimes, running * 2);
+        }
+        startClasses[running] = phaseClass;
+        startTimes[running] = time;
+        running++;
+    }
+
+    /**
+     * This function is called by the instrumentation after every optimization
+     * phase run.
+     */
+    public void postPhase(long time) {
+        if (running == 0) {
+            throw new AssertionError("Exiting phase that was not supposed to exit right now!");
+        }
+        running--;
+
+        if (finished == ends.length) {
+            classes = Arrays.copyOf(classes, finished * 2);
+            starts = Arrays.copyOf(starts, finished * 2);
+            ends = Arrays.copyOf(ends, finished * 2);
+        }
+        classes[finished] = startClasses[running];
+        starts[finished] = startTimes[running];
+        ends[finished] = time;
+        startClasses[running] = null;
+        finished++;
+    }
+
+    @Override
+    public void appendEvents(RunTimeline timeline, StringBuilder out) {
+        timeline.appendThreadName(out, threadId, threadName);
+        if (method != null) {
+            StringBuilder args = new StringBuilder("{\"id\":\"");
+            RunTimeline.appendEscaped(args, compilationId);
+            args.append("\"}");
+            timeline.appendEvent(out, method, "compilation", threadId, compilationStart, compilationEnd, args.toString());
+        }
+        for (int i = 0; i < finished; i++) {
+            String name = classes[i].getSimpleName();
+            timeline.appendEvent(out, name.isEmpty() ? classes[i].getName() : name, "phase", threadId, starts[i], ends[i],
+                    "{\"class\":\"" + classes[i].getName() + "\"}");
+        }
+    }
+
+    @Override
+    public String getName() {
+        return SLOT.getName();
+    }
+
+    @Override
+    public String getText() {
+        StringBuilder out = new StringBuilder("[\n");
+        appendEvents(Manager.getTimeline(), out);
+        // drop the separator after the last event
+        out.setLength(out.length() - 2);
+        return out.append("\n]\n").toString();
+    }
+}
@@ -0,0 +1,118 @@
+package cz.cuni.mff.d3s.blood.utils;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads blood's configuration from system properties. Options are usually
+ * read in static initializers that the instrumented compiler depends on, so
+ * an invalid value is reported and replaced by the default instead of
+ * failing the class initialization.
+ */
+public final class Options {
+
+    /**
+     * Disabling creation of instances of this class.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    private Options() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("Cannot instantiate this class");
+    }
+
+    /**
+     * @param name         name of the system property
+     * @param defaultValue used when the property is not set or is not a name
+     *                     of a constant, case-insensitively
+     * @param <E>          the enum type
+     * @return the selected constant
+     */
+    public static <E extends Enum<E>> E getEnum(String name, E defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(defaultValue.getDeclaringClass(), value.strip().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            warn(name, value, "one of " + Arrays.toString(defaultValue.getDeclaringClass().getEnumConstants()).toLowerCase(),
+                    defaultValue.name().toLowerCase());
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param name         name of the system property
+     * @param defaultValue used when the property is not set or is not a
+     *                     number
+     * @return the number, never NaN
+     */
+    public static double getDouble(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            double number = Double.parseDouble(value.strip());
+            if (!Double.isNaN(number)) {
+                return number;
+            }
+        } catch (NumberFormatException ex) {
+            // reported below
+        }
+        warn(name, value, "a number", defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * @param name         name of the system property
+     * @param defaultValue used when the property is not set or is not an
+     *                     integer
+     * @return the number
+     */
+    public static long getLong(String name, long defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.strip());
+        } catch (NumberFormatException ex) {
+            warn(name, value, "an integer", defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param name         name of the system property
+     * @param defaultValue used when the property is not set or is not an
+     *                     integer
+     * @return the number
+     */
+    public static int getInt(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.strip());
+        } catch (NumberFormatException ex) {
+            warn(name, value, "an integer", defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Reports a value of an option that is not used.
+     *
+     * @param name     name of the system property
+     * @param value    the value
+     * @param expected description of valid values
+     * @param used     the value used instead
+     */
+    public static void warn(String name, Object value, String expected, Object used) {
+        Logger.getLogger(Options.class.getName()).log(Level.WARNING, "Invalid value {0} of {1}, expected {2}, using {3}",
+                new Object[]{value, name, expected, used});
+    }
+}
@@ -0,0 +1,131 @@
+package cz.cuni.mff.d3s.blood.utils.matrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Matrix of counter cells that can be updated from many threads at once. Cells
+ * hold the same three numbers as cells of {@link Matrix} and are formatted the
+ * same way. Every number is a {@link LongAdder}, so threads adding to the same
+ * cell do not contend. Keys are sorted for output.
+ *
+ * @param <RowKeyType> type of row keys
+ * @param <ColKeyType> type of column keys
+ */
+public final class ConcurrentCounterMatrix<RowKeyType extends Comparable<? super RowKeyType>, ColKeyType extends Comparable<? super ColKeyType>> {
+
+    private static final String DEFAULT_VALUE = "0:0:0";
+
+    private final ConcurrentHashMap<RowKeyType, ConcurrentHashMap<ColKeyType, Cell>> rows = new ConcurrentHashMap<>();
+
+    /**
+     * Adds numbers to a cell, creating it if it does not exist yet.
+     */
+    public void add(RowKeyType rowKey, ColKeyType colKey, long count, long total, long iterations) {
+        ConcurrentHashMap<ColKeyType, Cell> row = rows.get(rowKey);
+        if (row == null) {
+            row = rows.computeIfAbsent(rowKey, k -> new ConcurrentHashMap<>());
+        }
+        Cell cell = row.get(colKey);
+        if (cell == null) {
+            cell = row.computeIfAbsent(colKey, k -> new Cell());
+        }
+        cell.count.add(count);
+        cell.total.add(total);
+        cell.iterations.add(iterations);
+    }
+
+    /**
+     * Adds all cells of a matrix, mapping its keys. Cells whose key maps to
+     * null are skipped.
+     *
+     * @param matrix    the matrix to add
+     * @param rowMapper maps row keys of the added matrix to keys of this one
+     * @param colMapper maps column keys of the added matrix to keys of this one
+     */
+    public <R, C> void addAll(Matrix<R, C> matrix, Function<R, RowKeyType> rowMapper, Function<C, ColKeyType> colMapper) {
+        List<C> colKeys = matrix.colKeys();
+        var mappedCols = new ArrayList<ColKeyType>(colKeys.size());
+        for (C colKey : colKeys) {
+            mappedCols.add(colMapper.apply(colKey));
+        }
+
+        List<R> rowKeys = matrix.rowKeys();
+        for (int r = 0; r < rowKeys.size(); r++) {
+            RowKeyType mappedRow = rowMapper.apply(rowKeys.get(r));
+            if (mappedRow == null) {
+                continue;
+            }
+            Matrix<R, C>.Row row = matrix.getRow(r);
+            for (int col = 0; col < mappedCols.size(); col++) {
+                if (row.has(col) && mappedCols.get(col) != null) {
+                    add(mappedRow, mappedCols.get(col), row.getCount(col), row.getTotal(col), row.getIterations(col));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return count, total and iterations of a cell, or null when the cell
+     * does not exist
+     */
+    public long[] get(RowKeyType rowKey, ColKeyType colKey) {
+        Map<ColKeyType, Cell> row = rows.get(rowKey);
+        Cell cell = row != null ? row.get(colKey) : null;
+        return cell == null ? null : new long[]{cell.count.sum(), cell.total.sum(), cell.iterations.sum()};
+    }
+
+    /**
+     * @return sorted row keys
+     */
+    public List<RowKeyType> rowKeys() {
+        return new ArrayList<>(new TreeSet<>(rows.keySet()));
+    }
+
+    /**
+     * @return sorted keys of all columns having a cell in any row
+     */
+    public List<ColKeyType> colKeys() {
+        var keys = new TreeSet<ColKeyType>();
+        for (Map<ColKeyType, Cell> row : rows.values()) {
+            keys.addAll(row.keySet());
+        }
+        return new ArrayList<>(keys);
+    }
+
+    /**
+     * Formats the matrix. Cells updated while formatting may be seen
+     * partially updated.
+     */
+    public String toString(List<RowKeyType> rowOrder, List<ColKeyType> colOrder) {
+        return rowOrder.stream()
+                .map(rowKey -> {
+                    Map<ColKeyType, Cell> row = rows.get(rowKey);
+                    return colOrder.stream()
+                            .map(colKey -> {
+                                Cell cell = row != null ? row.get(colKey) : null;
+                                return cell == null ? DEFAULT_VALUE : cell.toString();
+                            })
+                            .collect(Collectors.joining(" "));
+                })
+                .collect(Collectors.joining("\n"));
+    }
+
+    private static final class Cell {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAdder iterations = new LongAdder();
+
+        @Override
+        public String toString() {
+            return count.sum() + ":" + total.sum() + ":" + iterations.sum();
+        }
+    }
+}
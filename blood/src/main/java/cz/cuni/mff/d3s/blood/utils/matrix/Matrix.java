@@ -1,94 +1,256 @@
 package cz.cuni.mff.d3s.blood.utils.matrix;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Set;
+import java.util.List;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-// TODO documentation
-public class Matrix<RowKeyType, ColKeyType, ValueType extends MatrixValue<ValueType>> {
+/**
+ * Matrix of counter cells. Every cell holds three numbers - the number of
+ * positive occurrences of some event, the number of all occurrences of the
+ * event and the number of times it was measured. They are formatted as
+ * {@code X:Y:Z}.
+ * <p>
+ * Row and column keys are interned to small integers on first use. Rows are
+ * kept in a list indexed by the row number, each row stores its cells in one
+ * growable {@code long[]} indexed by the column number, so updating a cell allocates nothing once the row is large enough.
+ * <p>
+ * Instances are meant to be confined to a single thread.
+ *
+ * @param <RowKeyType> type of row keys
+ * @param <ColKeyType> type of column keys
+ */
+public final class Matrix<RowKeyType, ColKeyType> {
 
-    private final HashMap<RowKeyType, Row> rows;
-    private final int initialCapacity;
-    private final UnmodifiableRow defaultRow;
-    private final ValueType defaultValue;
+    private static final int COUNT = 0;
+    private static final int TOTAL = 1;
+    private static final int ITERATIONS = 2;
+    /**
+     * Number of longs stored per cell.
+     */
+    private static final int CELL_SIZE = 3;
+    private static final String DEFAULT_VALUE = "0:0:0";
 
-    public Matrix(int initialCapacity, ValueType defaultValue) {
-        this.initialCapacity = initialCapacity;
-        rows = new HashMap<>(initialCapacity);
-        defaultRow = new UnmodifiableRow();
-        this.defaultValue = defaultValue;
+    private final HashMap<RowKeyType, Integer> rowIndices;
+    private final ArrayList<RowKeyType> rowKeys;
+    private final ArrayList<Row> rows;
+    private final HashMap<ColKeyType, Integer> colIndices;
+    private final ArrayList<ColKeyType> colKeys;
+
+    public Matrix(int initialCapacity) {
+        rowIndices = new HashMap<>(initialCapacity);
+        rowKeys = new ArrayList<>(initialCapacity);
+        rows = new ArrayList<>(initialCapacity);
+        colIndices = new HashMap<>(initialCapacity);
+        colKeys = new ArrayList<>(initialCapacity);
+    }
+
+    public Matrix() {
+        this(16);
     }
 
-    public Matrix(ValueType defaultValue) {
-        this.initialCapacity = 0;
-        rows = new HashMap<>();
-        defaultRow = new UnmodifiableRow();
-        this.defaultValue = defaultValue;
+    /**
+     * Interns a column key.
+     *
+     * @param colKey the column key
+     * @return index of the column, stable for the lifetime of the matrix
+     */
+    public int getOrCreateColumn(ColKeyType colKey) {
+        Integer index = colIndices.get(colKey);
+        if (index == null) {
+            index = colKeys.size();
+            colKeys.add(colKey);
+            colIndices.put(colKey, index);
+        }
+        return index;
     }
 
+    /**
+     * @param colKey the column key
+     * @return index of the column, or -1 when the key was never interned
+     */
+    public int getColumn(ColKeyType colKey) {
+        Integer index = colIndices.get(colKey);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * @param rowKey the row key
+     * @return the row, or null when the key was never interned
+     */
     public Row getRow(RowKeyType rowKey) {
-        return rows.get(rowKey);
+        Integer index = rowIndices.get(rowKey);
+        return index != null ? rows.get(index) : null;
     }
 
-    public UnmodifiableRow getRowOrDefault(RowKeyType rowKey) {
-        Row row = getRow(rowKey);
-        return (row != null) ? row : defaultRow;
+    /**
+     * @param row index of the row, below {@link #rowCount()}
+     * @return the row
+     */
+    public Row getRow(int row) {
+        return rows.get(row);
     }
 
+    /**
+     * Interns a row key.
+     *
+     * @param rowKey the row key
+     * @return the row, created empty on first use
+     */
     public Row getOrCreateRow(RowKeyType rowKey) {
-        return rows.computeIfAbsent(rowKey, p -> new Row());
+        Integer index = rowIndices.get(rowKey);
+        if (index == null) {
+            index = rows.size();
+            rowKeys.add(rowKey);
+            rows.add(new Row());
+            rowIndices.put(rowKey, index);
+        }
+        return rows.get(index);
+    }
+
+    public int rowCount() {
+        return rows.size();
     }
 
     public String toString(Supplier<Stream<RowKeyType>> rowOrderSupplier, Supplier<Stream<ColKeyType>> colOrderSupplier) {
         return rowOrderSupplier.get()
-                .map(this::getRowOrDefault)
-                .map(row
-                        -> colOrderSupplier.get()
-                        .map(row::getOrDefault)
-                        .map(ValueType::toString)
-                        .collect(Collectors.joining(" "))
-                )
+                .map(rowKey -> {
+                    Row row = getRow(rowKey);
+                    return colOrderSupplier.get()
+                            .map(colKey -> {
+                                Integer col = colIndices.get(colKey);
+                                return (row == null || col == null) ? DEFAULT_VALUE : row.toString(col);
+                            })
+                            .collect(Collectors.joining(" "));
+                })
                 .collect(Collectors.joining("\n"));
     }
 
-    public Set<RowKeyType> rowKeys() {
-        return rows.keySet();
+    /**
+     * @return row keys in the order they were interned, the index in the list
+     * is the row index
+     */
+    public List<RowKeyType> rowKeys() {
+        return Collections.unmodifiableList(rowKeys);
+    }
+
+    /**
+     * @return column keys in the order they were interned
+     */
+    public List<ColKeyType> colKeys() {
+        return Collections.unmodifiableList(colKeys);
     }
 
-    public class UnmodifiableRow {
+    public final class Row {
+
+        /**
+         * {@link #CELL_SIZE} consecutive longs per column index
+         */
+        private long[] cells = new long[CELL_SIZE * 8];
+        /**
+         * bitset of column indices that have a cell in this row
+         */
+        private long[] present = new long[1];
+        /**
+         * column indices that have a cell in this row, in creation order
+         */
+        private int[] columns = new int[8];
+        private int columnCount = 0;
+
+        private Row() {
+        }
+
+        /**
+         * Adds to the number of positive occurrences in a cell, creating the
+         * cell if it does not exist yet.
+         *
+         * @param colKey column of the cell
+         * @param count  number to add
+         */
+        public void increment(ColKeyType colKey, long count) {
+            incrementColumn(getOrCreateColumn(colKey), count);
+        }
 
-        protected final HashMap<ColKeyType, ValueType> values;
+        /**
+         * Same as {@link #increment(Object, long)}, but with an already
+         * interned column.
+         *
+         * @param col   column index as returned by
+         *              {@link Matrix#getOrCreateColumn(Object)}
+         * @param count number to add
+         */
+        public void incrementColumn(int col, long count) {
+            touch(col);
+            cells[col * CELL_SIZE + COUNT] += count;
+        }
 
-        private UnmodifiableRow() {
-            if (initialCapacity == 0) {
-                values = new HashMap<>();
-            } else {
-                values = new HashMap<>(initialCapacity);
+        /**
+         * Closes one measurement of this row. Every existing cell gets the
+         * total number of occurrences added and its measurement counter
+         * incremented.
+         *
+         * @param total number of all occurrences of the event
+         */
+        public void finishMeasurement(long total) {
+            for (int i = 0; i < columnCount; i++) {
+                int base = columns[i] * CELL_SIZE;
+                cells[base + TOTAL] += total;
+                cells[base + ITERATIONS]++;
             }
         }
 
-        public ValueType get(ColKeyType colKey) {
-            return values.get(colKey);
+        private void touch(int col) {
+            int word = col >>> 6;
+            long bit = 1L << col;
+            if (word >= present.length) {
+                present = Arrays.copyOf(present, Math.max(word + 1, present.length * 2));
+            }
+            if ((present[word] & bit) != 0) {
+                return;
+            }
+            present[word] |= bit;
+
+            if (columnCount == columns.length) {
+                columns = Arrays.copyOf(columns, columns.length * 2);
+            }
+            columns[columnCount++] = col;
+
+            if ((col + 1) * CELL_SIZE > cells.length) {
+                cells = Arrays.copyOf(cells, Math.max((col + 1) * CELL_SIZE, cells.length * 2));
+            }
         }
 
-        public ValueType getOrDefault(ColKeyType colKey) {
-            return values.getOrDefault(colKey, defaultValue);
+        /**
+         * @param col column index
+         * @return true when the row has a cell in the column
+         */
+        public boolean has(int col) {
+            int word = col >>> 6;
+            return col >= 0 && word < present.length && (present[word] & (1L << col)) != 0;
         }
 
-        public Stream<ValueType> valuesStream() {
-            return values.values().stream();
+        public long getCount(int col) {
+            return has(col) ? cells[col * CELL_SIZE + COUNT] : 0;
         }
-    }
 
-    public class Row extends UnmodifiableRow {
+        public long getTotal(int col) {
+            return has(col) ? cells[col * CELL_SIZE + TOTAL] : 0;
+        }
 
-        private Row() {
+        public long getIterations(int col) {
+            return has(col) ? cells[col * CELL_SIZE + ITERATIONS] : 0;
         }
 
-        public ValueType getOrCreate(ColKeyType colKey) {
-            return values.computeIfAbsent(colKey, p -> defaultValue.copy());
+        private String toString(int col) {
+            if (!has(col)) {
+                return DEFAULT_VALUE;
+            }
+            int base = col * CELL_SIZE;
+            return cells[base + COUNT] + ":" + cells[base + TOTAL] + ":" + cells[base + ITERATIONS];
         }
     }
 }
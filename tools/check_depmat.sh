@@ -0,0 +1,94 @@
+#!/bin/bash
+
+##
+## Runs every test program twice, with depmat in the scan mode
+## (walking the whole graph after every phase) and in the event
+## mode (tagging only nodes seen by creation events), and compares
+## the .depmat dumps of the same compilations of both runs.
+## Fails when they differ, when the VM fails or when a run
+## produced no .depmat dumps.
+##
+
+tools="`dirname "$0"`"
+gcopdd="$tools/.."
+vm="$gcopdd/vm"
+
+if [[ $# == 0 ]]
+then
+	set -- "$gcopdd"/tests/*.java
+fi
+
+out="`mktemp -d`"
+trap 'rm -rf "$out"' EXIT
+
+# Prints "<method>#<n> <depmat file>" for the n-th compilation of every method
+# in a run, sorted. Compilation identifiers differ between runs, so the
+# compilations are matched by the method and the order in which they were
+# dumped (the number after # in the .request file).
+list_dumps() {
+	for request in "$1"/*/*.request
+	do
+		depmat="${request%.request}.depmat"
+		if [[ -e $depmat ]]
+		then
+			# "HotSpotCompilation-42[java.lang.String.indexOf(int, int)] #7"
+			line="`cat "$request"`"
+			method="[${line#*[}"
+			method="${method% #*}"
+			echo "${line##*#} ${method// /} $depmat"
+		fi
+	done | sort -n | awk '{ print $2 "#" ++n[$2], $3 }' | sort
+}
+
+# Runs the test with the given depmat mode, dumps go to $out/<mode>.
+run() {
+	mkdir -p "$out/$1"
+	# -Xbatch, so that both runs compile the same methods in the same order
+	if ! "$vm" -Xbatch -Dblood.depmat.mode="$1" -Dblood.compression=false -Dblood.dumpformat=text \
+		-Dblood.dumpsdir="$out/$1" "$test" >/dev/null
+	then
+		echo "VM failed in the $1 mode"
+		return 1
+	fi
+	list_dumps "$out/$1" > "$out/$1.list"
+	if [[ ! -s $out/$1.list ]]
+	then
+		echo "No .depmat dumps in the $1 mode"
+		return 1
+	fi
+}
+
+status=0
+for test in "$@"
+do
+	echo "Checking depmat on $test"
+	rm -rf "$out"/*
+
+	if ! run scan || ! run event
+	then
+		status=1
+		continue
+	fi
+
+	compared=0
+	while read -r key scan event
+	do
+		compared=$((compared + 1))
+		if ! diff -q "$scan" "$event" >/dev/null
+		then
+			echo "depmat differs in compilation $key"
+			diff "$scan" "$event" | head -n 20
+			status=1
+		fi
+	done < <(join "$out/scan.list" "$out/event.list")
+
+	unmatched=`join -v 1 -v 2 "$out/scan.list" "$out/event.list" | wc -l`
+	echo "Compared $compared compilations, $unmatched compiled in one mode only"
+	if [[ $compared == 0 ]]
+	then
+		echo "No compilation was dumped in both modes"
+		status=1
+	fi
+done
+
+exit $status
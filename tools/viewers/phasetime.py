@@ -0,0 +1,67 @@
+from html import escape
+from viewers.common import *
+
+
+COLUMNS = ['Wall time', 'CPU time', 'Allocated']
+
+
+def read_runs(lines):
+	for line in lines:
+		if line:
+			# newer dumps also have the LIR instruction count
+			state, wall, cpu, allocated = map(int, line.split(' ')[:4])
+			yield state, wall, cpu, allocated
+
+
+def phase_of(stacks, state):
+	try:
+		return (stacks[state].split() or ['Top-level'])[-1]
+	except IndexError:
+		return '??'
+
+
+def pretty_value(value, unit):
+	if value < 0:
+		return 'n/a'
+	return pretty_number(value) + unit
+
+
+def html_table(rows, total_wall):
+	yield '<table class="mono">'
+	yield '<tr><th>Phase</th><th>Runs</th>%s<th>Share</th></tr>' % ''.join('<th>%s</th>' % c for c in COLUMNS)
+	for phase, runs, wall, cpu, allocated in rows:
+		yield '<tr><td>%s</td><td>%s</td><td>%s</td><td>%s</td><td>%s</td><td>%s</td></tr>' % (
+			escape(phase), runs,
+			pretty_value(wall, 'ns'), pretty_value(cpu, 'ns'), pretty_value(allocated, 'B'),
+			percent_str(total_wall and wall / total_wall),
+		)
+	yield '</table>'
+
+
+def sum_by_phase(d, runs, stacks):
+	for state, wall, cpu, allocated in runs:
+		phase = phase_of(stacks, state)
+		old = d.get(phase, (0, 0, 0, 0))
+		d[phase] = (old[0] + 1, old[1] + wall, old[2] + cpu, old[3] + allocated)
+
+
+def html_sorted(d):
+	# runs of a phase include nested phases, so the share is relative to the longest phase
+	rows = sorted(((phase,) + values for phase, values in d.items()), key=lambda row: row[2], reverse=True)
+	total_wall = rows[0][2] if rows else 0
+	return html_table(rows, total_wall)
+
+
+def view(file, open_sibling, params):
+	stacks = list(stripped_lines_close(open_sibling('phasestack')))
+	d = {}
+	sum_by_phase(d, read_runs(stripped_lines_close(file)), stacks)
+	return html_sorted(d)
+
+
+def aggregate(files, open_sibling, params):
+	d = {}
+	for file, stack_f in zip(files, open_sibling('phasestack')):
+		stacks = list(stripped_lines_close(stack_f))
+		sum_by_phase(d, read_runs(stripped_lines_close(file)), stacks)
+	return html_sorted(d)